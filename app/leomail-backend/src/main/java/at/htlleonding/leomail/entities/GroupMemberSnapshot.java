@@ -0,0 +1,42 @@
+package at.htlleonding.leomail.entities;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+
+/**
+ * Expanded membership of a group, stored as one row instead of one join row per member.
+ * The member IDs are sorted; {@code mailAddresses[i]} belongs to {@code memberIds[i]}.
+ */
+@Entity
+@Table(name = "group_member_snapshot")
+public class GroupMemberSnapshot extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "group_id", length = 36)
+    public String groupId;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "member_ids", nullable = false)
+    public String[] memberIds;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "mail_addresses", nullable = false)
+    public String[] mailAddresses;
+
+    @Column(name = "built_at", nullable = false)
+    public LocalDateTime builtAt;
+
+    public GroupMemberSnapshot() {
+    }
+
+    public GroupMemberSnapshot(String groupId, String[] memberIds, String[] mailAddresses) {
+        this.groupId = groupId;
+        this.memberIds = memberIds;
+        this.mailAddresses = mailAddresses;
+        this.builtAt = LocalDateTime.now();
+    }
+}
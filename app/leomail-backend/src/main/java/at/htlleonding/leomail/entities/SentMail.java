@@ -1,10 +1,15 @@
 package at.htlleonding.leomail.entities;
 
+import at.htlleonding.leomail.model.enums.DeliveryStatus;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = @Index(name = "idx_sentmail_outbox", columnList = "status, nextAttemptAt"))
 public class SentMail extends PanacheEntityBase {
 
     @Id
@@ -21,7 +26,24 @@ public class SentMail extends PanacheEntityBase {
     @Column(length = 8192)
     public String actualContent;
 
-    public boolean sent = false;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    public DeliveryStatus status = DeliveryStatus.PENDING;
+
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    public int attempts = 0;
+
+    public String leaseOwner;
+
+    public LocalDateTime leaseUntil;
+
+    public LocalDateTime nextAttemptAt;
+
+    public LocalDateTime lastAttemptAt;
+
+    @Column(length = 1024)
+    public String lastSmtpReply;
 
     public SentMail() {
     }
@@ -1,11 +1,13 @@
 package at.htlleonding.leomail.entities;
 
 import at.htlleonding.leomail.model.MailType;
+import at.htlleonding.leomail.model.enums.DeliveryMode;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
 public class SentTemplate extends PanacheEntityBase {
@@ -37,6 +39,20 @@ public class SentTemplate extends PanacheEntityBase {
     @Column(nullable = false)
     public String senderId;
 
+    @Enumerated(EnumType.STRING)
+    @ColumnDefault("'INDIVIDUAL'")
+    @Column(nullable = false, length = 20)
+    public DeliveryMode deliveryMode = DeliveryMode.INDIVIDUAL;
+
+    // needed to render LATE_RENDER campaigns at send time
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    public boolean personalized;
+
+    // body of BCC_BATCH campaigns, stored once instead of per SentMail
+    @Column(length = 8192)
+    public String sharedContent;
+
     public SentTemplate() {}
 
     public SentTemplate(Template template, LocalDateTime scheduledAt, Project project, MailType mailType, String senderId) {
@@ -0,0 +1,17 @@
+package at.htlleonding.leomail.model;
+
+import at.htlleonding.leomail.contracts.ContactSearchResult;
+
+/**
+ * Fired when a contact was added, updated or deleted; {@code contact} is null for a deleted contact.
+ */
+public record ContactChangedEvent(String contactId, ContactSearchResult contact) {
+
+    public static ContactChangedEvent saved(ContactSearchResult contact) {
+        return new ContactChangedEvent(contact.getId(), contact);
+    }
+
+    public static ContactChangedEvent deleted(String contactId) {
+        return new ContactChangedEvent(contactId, null);
+    }
+}
@@ -0,0 +1,45 @@
+package at.htlleonding.leomail.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public record DispatchResult(Long sentMailId, boolean sent, boolean permanent, String error) {
+
+    public static List<DispatchResult> success(OutgoingMail mail) {
+        return mail.sentMailIds().stream()
+                .map(id -> new DispatchResult(id, true, false, null))
+                .toList();
+    }
+
+    public static List<DispatchResult> failure(OutgoingMail mail, boolean permanent, String error) {
+        return mail.sentMailIds().stream()
+                .map(id -> new DispatchResult(id, false, permanent, error))
+                .toList();
+    }
+
+    /**
+     * Maps a message the provider accepted for part of its recipients to one result per recipient:
+     * the delivered recipients count as sent, the rejected ones as failed with their reply code.
+     *
+     * @param delivered     Lower-case addresses the provider accepted
+     * @param rejectedCodes Reply code per rejected lower-case address
+     * @param error         Error used for rejected recipients without a reply code
+     */
+    public static List<DispatchResult> partial(OutgoingMail mail, Set<String> delivered, Map<String, Integer> rejectedCodes, String error) {
+        List<DispatchResult> results = new ArrayList<>(mail.recipients().size());
+        for (int i = 0; i < mail.recipients().size(); i++) {
+            Long id = mail.sentMailIds().get(i);
+            String recipient = mail.recipients().get(i).toLowerCase();
+            if (delivered.contains(recipient)) {
+                results.add(new DispatchResult(id, true, false, null));
+            } else {
+                Integer code = rejectedCodes.get(recipient);
+                results.add(new DispatchResult(id, false, code != null && code >= 500,
+                        code != null ? code + " recipient rejected" : error));
+            }
+        }
+        return results;
+    }
+}
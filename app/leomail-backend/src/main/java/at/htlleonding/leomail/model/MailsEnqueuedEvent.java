@@ -0,0 +1,4 @@
+package at.htlleonding.leomail.model;
+
+public record MailsEnqueuedEvent(Long sentTemplateId) {
+}
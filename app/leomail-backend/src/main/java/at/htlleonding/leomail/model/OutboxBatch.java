@@ -0,0 +1,11 @@
+package at.htlleonding.leomail.model;
+
+import at.htlleonding.leomail.entities.Attachment;
+
+import java.util.List;
+
+public record OutboxBatch(Long sentTemplateId,
+                          SenderCredentials senderCredentials,
+                          List<Attachment> attachments,
+                          List<OutgoingMail> mails) {
+}
@@ -0,0 +1,36 @@
+package at.htlleonding.leomail.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message to be sent. Individual mails have exactly one recipient; BCC mails carry one shared
+ * body for several recipients, each of them backed by its own SentMail row.
+ */
+public record OutgoingMail(List<Long> sentMailIds, List<String> recipients, boolean bcc, String subject, String content) {
+
+    public static OutgoingMail individual(Long sentMailId, String recipient, String subject, String content) {
+        return new OutgoingMail(List.of(sentMailId), List.of(recipient), false, subject, content);
+    }
+
+    public static OutgoingMail bcc(List<Long> sentMailIds, List<String> recipients, String subject, String content) {
+        return new OutgoingMail(List.copyOf(sentMailIds), List.copyOf(recipients), true, subject, content);
+    }
+
+    /**
+     * Splits the recipients of a shared body into BCC messages of at most {@code batchSize} recipients.
+     *
+     * @param sentMailIds SentMail IDs, parallel to {@code recipients}
+     * @param recipients  Recipient addresses
+     * @param batchSize   Maximum number of recipients per message
+     * @return The BCC messages, in recipient order
+     */
+    public static List<OutgoingMail> bccBatches(List<Long> sentMailIds, List<String> recipients, int batchSize, String subject, String content) {
+        List<OutgoingMail> batches = new ArrayList<>((recipients.size() + batchSize - 1) / batchSize);
+        for (int from = 0; from < recipients.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, recipients.size());
+            batches.add(bcc(sentMailIds.subList(from, to), recipients.subList(from, to), subject, content));
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,24 @@
+package at.htlleonding.leomail.model.dto.contacts;
+
+import at.htlleonding.leomail.model.enums.ContactType;
+import at.htlleonding.leomail.model.enums.Gender;
+
+/**
+ * One exported contact; the field names match the CSV columns of the contact import. The import takes
+ * one contact type per file and rejects company rows in a natural contact file (and vice versa), so only
+ * an export with {@code type=natural} or {@code type=company} can be imported again as it is.
+ */
+public record ContactExportDTO(
+        String id,
+        ContactType type,
+        String mailAddress,
+        String firstName,
+        String lastName,
+        String prefixTitle,
+        String suffixTitle,
+        String company,
+        String positionAtCompany,
+        Gender gender,
+        String companyName,
+        boolean kcUser
+) { }
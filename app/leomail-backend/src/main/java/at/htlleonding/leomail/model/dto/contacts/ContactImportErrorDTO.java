@@ -0,0 +1,10 @@
+package at.htlleonding.leomail.model.dto.contacts;
+
+/**
+ * A CSV row that was not imported; {@code line} is the line of the row in the uploaded file.
+ */
+public record ContactImportErrorDTO(
+        long line,
+        String mailAddress,
+        String message
+) { }
@@ -0,0 +1,9 @@
+package at.htlleonding.leomail.model.dto.contacts;
+
+import java.util.List;
+
+public record ContactImportResultDTO(
+        long rows,
+        long imported,
+        List<ContactImportErrorDTO> errors
+) { }
@@ -0,0 +1,11 @@
+package at.htlleonding.leomail.model.dto.contacts;
+
+import java.util.List;
+
+/**
+ * One page of search results; {@code nextCursor} is null on the last page.
+ */
+public record ContactSearchPage<T>(
+        List<T> results,
+        String nextCursor
+) { }
@@ -0,0 +1,44 @@
+package at.htlleonding.leomail.model.dto.contacts;
+
+import at.htlleonding.leomail.entities.CompanyContact;
+import at.htlleonding.leomail.entities.Contact;
+import at.htlleonding.leomail.entities.NaturalContact;
+import at.htlleonding.leomail.model.enums.Gender;
+
+/**
+ * Recipient of a mail with exactly the contact data a template can use.
+ * Fields of the other contact type are null.
+ */
+public record RecipientDTO(
+        String id,
+        String mailAddress,
+        String firstName,
+        String lastName,
+        String prefixTitle,
+        String suffixTitle,
+        String company,
+        String positionAtCompany,
+        Gender gender,
+        String companyName
+) {
+
+    public static RecipientDTO natural(String id, String mailAddress, String firstName, String lastName, String prefixTitle,
+                                       String suffixTitle, String company, String positionAtCompany, Gender gender) {
+        return new RecipientDTO(id, mailAddress, firstName, lastName, prefixTitle, suffixTitle, company, positionAtCompany, gender, null);
+    }
+
+    public static RecipientDTO company(String id, String mailAddress, String companyName) {
+        return new RecipientDTO(id, mailAddress, null, null, null, null, null, null, null, companyName);
+    }
+
+    public static RecipientDTO of(Contact contact) {
+        if (contact instanceof NaturalContact natural) {
+            return natural(natural.id, natural.mailAddress, natural.firstName, natural.lastName, natural.prefixTitle,
+                    natural.suffixTitle, natural.company, natural.positionAtCompany, natural.gender);
+        }
+        if (contact instanceof CompanyContact company) {
+            return company(company.id, company.mailAddress, company.companyName);
+        }
+        return new RecipientDTO(contact.id, contact.getMailAddress(), null, null, null, null, null, null, null, null);
+    }
+}
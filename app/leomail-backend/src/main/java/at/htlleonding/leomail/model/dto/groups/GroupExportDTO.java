@@ -0,0 +1,9 @@
+package at.htlleonding.leomail.model.dto.groups;
+
+public record GroupExportDTO(
+        String id,
+        String name,
+        String description,
+        String createdBy,
+        int memberCount
+) { }
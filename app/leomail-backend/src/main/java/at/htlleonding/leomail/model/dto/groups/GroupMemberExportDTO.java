@@ -0,0 +1,14 @@
+package at.htlleonding.leomail.model.dto.groups;
+
+import at.htlleonding.leomail.model.enums.ContactType;
+
+public record GroupMemberExportDTO(
+        String groupId,
+        String groupName,
+        String contactId,
+        ContactType type,
+        String mailAddress,
+        String firstName,
+        String lastName,
+        String companyName
+) { }
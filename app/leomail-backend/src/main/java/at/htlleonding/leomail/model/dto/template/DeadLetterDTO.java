@@ -0,0 +1,14 @@
+package at.htlleonding.leomail.model.dto.template;
+
+import java.time.LocalDateTime;
+
+public record DeadLetterDTO(
+        Long mailId,
+        Long sentTemplateId,
+        String templateName,
+        String recipient,
+        int attempts,
+        LocalDateTime lastAttemptAt,
+        String lastSmtpReply
+) {
+}
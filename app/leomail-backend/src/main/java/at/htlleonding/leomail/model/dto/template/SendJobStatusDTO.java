@@ -0,0 +1,21 @@
+package at.htlleonding.leomail.model.dto.template;
+
+import at.htlleonding.leomail.model.enums.SendJobState;
+
+import java.time.LocalDateTime;
+
+public record SendJobStatusDTO(
+        Long jobId,
+        SendJobState state,
+        long total,
+        long pending,
+        long retrying,
+        long sent,
+        long failed,
+        double throughputPerMinute,
+        Long etaSeconds,
+        LocalDateTime scheduledAt,
+        LocalDateTime startedAt,
+        LocalDateTime lastSentAt
+) {
+}
@@ -1,7 +1,8 @@
 package at.htlleonding.leomail.model.dto.template;
 
 import at.htlleonding.leomail.model.dto.template.mail.TemplateMailContactInformationDTO;
+import at.htlleonding.leomail.model.enums.DeliveryStatus;
 
-public record SentMailDTO(TemplateMailContactInformationDTO contact, String content) {
+public record SentMailDTO(TemplateMailContactInformationDTO contact, String content, DeliveryStatus status) {
 
 }
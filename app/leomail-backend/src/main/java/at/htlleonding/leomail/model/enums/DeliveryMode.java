@@ -0,0 +1,7 @@
+package at.htlleonding.leomail.model.enums;
+
+public enum DeliveryMode {
+    INDIVIDUAL,
+    BCC_BATCH,
+    LATE_RENDER
+}
@@ -0,0 +1,9 @@
+package at.htlleonding.leomail.model.enums;
+
+public enum DeliveryStatus {
+    PENDING,
+    SENDING,
+    SENT,
+    RETRY_WAIT,
+    FAILED_PERMANENT
+}
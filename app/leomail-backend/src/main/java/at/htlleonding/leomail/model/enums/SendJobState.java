@@ -0,0 +1,8 @@
+package at.htlleonding.leomail.model.enums;
+
+public enum SendJobState {
+    SCHEDULED,
+    QUEUED,
+    RUNNING,
+    COMPLETED
+}
@@ -1,32 +1,42 @@
 package at.htlleonding.leomail.repositories;
 
-import at.htlleonding.leomail.contracts.ContactSearchResult;
 import at.htlleonding.leomail.entities.CompanyContact;
 import at.htlleonding.leomail.entities.Contact;
 import at.htlleonding.leomail.entities.NaturalContact;
 import at.htlleonding.leomail.entities.Template; // Ensure you have this entity
+import at.htlleonding.leomail.model.ContactChangedEvent;
 import at.htlleonding.leomail.model.dto.contacts.*;
 import at.htlleonding.leomail.model.exceptions.ObjectContainsNullAttributesException;
 import at.htlleonding.leomail.model.exceptions.contacts.ContactExistsInKeycloakException;
 import at.htlleonding.leomail.model.exceptions.contacts.ContactKcUserException;
 import at.htlleonding.leomail.services.KeycloakAdminService;
 import at.htlleonding.leomail.services.Utilities;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
+import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
 import org.jboss.logging.Logger;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @ApplicationScoped
 public class ContactRepository {
 
     private static final Logger LOGGER = Logger.getLogger(ContactRepository.class);
+    // four parameters per row, well below the PostgreSQL limit of 65535 bind parameters
+    private static final int KEYCLOAK_INSERT_CHUNK = 1000;
 
     @Inject
     KeycloakAdminService keycloakAdminService;
 
+    @Inject
+    GroupMemberSnapshotRepository groupMemberSnapshotRepository;
+
+    @Inject
+    Event<ContactChangedEvent> contactChanged;
+
     public boolean userExists(String id) {
         return NaturalContact.count("id", id) > 0;
     }
@@ -60,6 +70,8 @@ public class ContactRepository {
         naturalContact.gender = contactDTO.gender();
 
         naturalContact.persist();
+        contactChanged.fire(ContactChangedEvent.saved(new NaturalContactSearchDTO(
+                naturalContact.id, naturalContact.firstName, naturalContact.lastName, naturalContact.mailAddress)));
         LOGGER.infof("New natural contact '%s' successfully added.", naturalContact);
     }
 
@@ -85,6 +97,8 @@ public class ContactRepository {
         companyContact.mailAddress = contactDTO.mailAddress().trim();
 
         companyContact.persist();
+        contactChanged.fire(ContactChangedEvent.saved(new CompanyContactSearchDTO(
+                companyContact.id, companyContact.companyName, companyContact.mailAddress)));
         LOGGER.infof("New company contact '%s' successfully added.", companyContact);
     }
 
@@ -103,6 +117,9 @@ public class ContactRepository {
             throw new IllegalArgumentException("Cannot update Keycloak user");
         }
 
+        if (!contactDTO.mailAddress().trim().equals(contact.mailAddress)) {
+            groupMemberSnapshotRepository.invalidateContaining(contact.id);
+        }
         contact.mailAddress = contactDTO.mailAddress().trim();
         contact.firstName = contactDTO.firstName().trim();
         contact.lastName = contactDTO.lastName().trim();
@@ -111,6 +128,8 @@ public class ContactRepository {
         contact.prefixTitle = contactDTO.prefixTitle() != null ? contactDTO.prefixTitle().trim() : null;
         contact.company = contactDTO.company() != null ? contactDTO.company().trim() : null;
         contact.positionAtCompany = contactDTO.positionAtCompany() != null ? contactDTO.positionAtCompany().trim() : null;
+        contactChanged.fire(ContactChangedEvent.saved(new NaturalContactSearchDTO(
+                contact.id, contact.firstName, contact.lastName, contact.mailAddress)));
 
         LOGGER.infof("Natural contact with ID %s successfully updated.", contactDTO.id());
     }
@@ -130,8 +149,13 @@ public class ContactRepository {
             throw new IllegalArgumentException("Cannot update Keycloak user");
         }
 
+        if (!contactDTO.mailAddress().trim().equals(contact.mailAddress)) {
+            groupMemberSnapshotRepository.invalidateContaining(contact.id);
+        }
         contact.mailAddress = contactDTO.mailAddress().trim();
         contact.companyName = contactDTO.companyName().trim();
+        contactChanged.fire(ContactChangedEvent.saved(new CompanyContactSearchDTO(
+                contact.id, contact.companyName, contact.mailAddress)));
 
         LOGGER.infof("Company contact with ID %s successfully updated.", contactDTO.id());
     }
@@ -153,7 +177,9 @@ public class ContactRepository {
             throw new ContactKcUserException("Cannot delete a Keycloak user contact");
         }
 
+        groupMemberSnapshotRepository.invalidateContaining(id);
         contact.delete();
+        contactChanged.fire(ContactChangedEvent.deleted(id));
         LOGGER.infof("Contact with ID %s successfully deleted.", id);
     }
 
@@ -205,77 +231,6 @@ public class ContactRepository {
         }
     }
 
-    /**
-     * Searches natural contacts based on a search term.
-     *
-     * @param searchTerm Search term
-     * @param own        Own user ID to exclude
-     * @return List of found natural contacts
-     */
-    public List<NaturalContactSearchDTO> searchNaturalContacts(String searchTerm, String own) {
-        if (searchTerm == null || searchTerm.isEmpty()) {
-            searchTerm = "";
-        }
-        String finalSearchTerm = "%" + searchTerm.trim().toLowerCase() + "%";
-
-        List<NaturalContact> naturalContacts = NaturalContact.find(
-                "(lower(mailAddress) like ?1 or lower(firstName) like ?1 or lower(lastName) like ?1) and id != ?2",
-                finalSearchTerm,
-                own
-        ).list();
-
-        return naturalContacts.stream()
-                .map(contact -> new NaturalContactSearchDTO(
-                        contact.id,
-                        contact.firstName,
-                        contact.lastName,
-                        contact.mailAddress
-                ))
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Searches company contacts based on a search term.
-     *
-     * @param searchTerm Search term
-     * @param own        Own user ID to exclude
-     * @return List of found company contacts
-     */
-    public List<CompanyContactSearchDTO> searchCompanyContacts(String searchTerm, String own) {
-        if (searchTerm == null || searchTerm.isEmpty()) {
-            searchTerm = "";
-        }
-        String finalSearchTerm = "%" + searchTerm.trim().toLowerCase() + "%";
-
-        List<CompanyContact> companyContacts = CompanyContact.find(
-                "(lower(mailAddress) like ?1 or lower(companyName) like ?1) and id != ?2",
-                finalSearchTerm,
-                own
-        ).list();
-
-        return companyContacts.stream()
-                .map(contact -> new CompanyContactSearchDTO(
-                        contact.id,
-                        contact.companyName,
-                        contact.mailAddress
-                ))
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Searches all contacts (natural and company) based on a search term.
-     *
-     * @param searchTerm Search term
-     * @param own        Own user ID to exclude
-     * @return List of found contacts
-     */
-    public List<ContactSearchResult> searchAllContacts(String searchTerm, String own) {
-        List<ContactSearchResult> results = new ArrayList<>();
-        results.addAll(searchNaturalContacts(searchTerm, own));
-        results.addAll(searchCompanyContacts(searchTerm, own));
-        return results;
-    }
-
     /**
      * Saves a Keycloak user locally as a natural contact.
      *
@@ -298,7 +253,93 @@ public class ContactRepository {
         contact.mailAddress = email.trim();
         contact.kcUser = true;
         contact.persist();
+        contactChanged.fire(ContactChangedEvent.saved(new NaturalContactSearchDTO(
+                contact.id, contact.firstName, contact.lastName, contact.mailAddress)));
         LOGGER.infof("New Keycloak user '%s' successfully saved locally.", contact);
         return contact;
     }
+
+    /**
+     * Stores the Keycloak users among the given IDs that are not stored locally yet. The missing users are
+     * fetched from Keycloak concurrently and inserted in one multi-row statement, instead of one request
+     * and one insert per user. The Keycloak requests run without a transaction, only the lookup and the
+     * insert run in short transactions of their own; call it before the transaction that uses the contacts.
+     *
+     * @param ids Contact IDs, may contain IDs that already exist locally
+     * @return The given IDs that exist locally afterwards
+     */
+    public Set<String> importMissingKeycloakUsers(Collection<String> ids) {
+        Set<String> present = new HashSet<>();
+        if (ids == null || ids.isEmpty()) {
+            return present;
+        }
+        present.addAll(QuarkusTransaction.requiringNew().call(() -> Contact.getEntityManager()
+                .createQuery("select c.id from Contact c where c.id in :ids", String.class)
+                .setParameter("ids", new HashSet<>(ids))
+                .getResultList()));
+        List<String> missing = ids.stream().distinct().filter(id -> !present.contains(id)).toList();
+        if (missing.isEmpty()) {
+            return present;
+        }
+
+        Map<String, NaturalContactSearchDTO> users = keycloakAdminService.findUsersAsNaturalContactSearchDTOs(missing);
+        for (String id : missing) {
+            if (!users.containsKey(id)) {
+                LOGGER.warnf("User with ID %s not found in Keycloak.", id);
+            }
+        }
+        if (users.isEmpty()) {
+            return present;
+        }
+        QuarkusTransaction.requiringNew().run(() -> {
+            for (String id : insertKeycloakUsers(users.values())) {
+                present.add(id);
+                contactChanged.fire(ContactChangedEvent.saved(users.get(id)));
+            }
+        });
+        return present;
+    }
+
+    /**
+     * Inserts Keycloak users with one statement per chunk. Users whose ID or mail address is already
+     * stored are skipped, so that no half-inserted contact (base row without subtype row) can remain.
+     *
+     * @param users Users to insert
+     * @return IDs of the inserted users
+     */
+    private List<String> insertKeycloakUsers(Collection<NaturalContactSearchDTO> users) {
+        List<NaturalContactSearchDTO> valid = users.stream()
+                .filter(user -> user.mailAddress() != null && !user.mailAddress().isBlank())
+                .toList();
+        List<String> inserted = new ArrayList<>();
+        for (int from = 0; from < valid.size(); from += KEYCLOAK_INSERT_CHUNK) {
+            List<NaturalContactSearchDTO> chunk = valid.subList(from, Math.min(from + KEYCLOAK_INSERT_CHUNK, valid.size()));
+            StringJoiner values = new StringJoiner(", ");
+            for (int i = 0; i < chunk.size(); i++) {
+                values.add("(?" + (4 * i + 1) + ", ?" + (4 * i + 2) + ", ?" + (4 * i + 3) + ", ?" + (4 * i + 4) + ")");
+            }
+            Query query = Contact.getEntityManager().createNativeQuery(
+                    "with input(id, firstname, lastname, mailaddress) as (values " + values + "), " +
+                            "fresh as (select distinct on (i.mailaddress) i.* from input i " +
+                            "where not exists (select 1 from contact c where c.id = i.id) " +
+                            "and not exists (select 1 from naturalcontact n where n.mailaddress = i.mailaddress)), " +
+                            "base as (insert into contact(id, kcuser, created) select f.id, true, now() from fresh f " +
+                            "on conflict do nothing returning id) " +
+                            "insert into naturalcontact(id, firstname, lastname, mailaddress) " +
+                            "select f.id, f.firstname, f.lastname, f.mailaddress from fresh f join base b on b.id = f.id " +
+                            "returning id");
+            for (int i = 0; i < chunk.size(); i++) {
+                NaturalContactSearchDTO user = chunk.get(i);
+                query.setParameter(4 * i + 1, user.id());
+                query.setParameter(4 * i + 2, user.firstName() != null ? user.firstName().trim() : "");
+                query.setParameter(4 * i + 3, user.lastName() != null ? user.lastName().trim() : "");
+                query.setParameter(4 * i + 4, user.mailAddress().trim());
+            }
+            for (Object id : query.getResultList()) {
+                inserted.add((String) id);
+            }
+        }
+        LOGGER.infof("%d of %d Keycloak users saved locally.", inserted.size(), users.size());
+        return inserted;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+package at.htlleonding.leomail.repositories;
+
+import at.htlleonding.leomail.contracts.ContactSearchResult;
+import at.htlleonding.leomail.model.dto.contacts.CompanyContactSearchDTO;
+import at.htlleonding.leomail.model.dto.contacts.ContactSearchPage;
+import at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO;
+import at.htlleonding.leomail.services.ContactSearchIndex;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Contact search for autocompletion. Substring matches are served by pg_trgm GIN indexes, prefix matches
+ * by btree indexes, so the latency does not grow with the number of contacts. Results are ranked:
+ * prefix matches first, then by trigram word similarity; pages are continued with an opaque keyset cursor.
+ * If the in-memory {@link ContactSearchIndex} is enabled and built, searches are answered from it instead.
+ */
+@ApplicationScoped
+public class ContactSearchRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(ContactSearchRepository.class);
+
+    // below this length trigrams are not selective, such terms only match prefixes
+    private static final int MIN_SUBSTRING_LENGTH = 3;
+
+    private static final String NATURAL_DOCUMENT = "lower(c.firstname || ' ' || c.lastname || ' ' || c.mailaddress)";
+    private static final String COMPANY_DOCUMENT = "lower(c.companyname || ' ' || c.mailaddress)";
+
+    private static final List<String> INDEXES = List.of(
+            "create index if not exists idx_naturalcontact_search_trgm on naturalcontact " +
+                    "using gin (lower(firstname || ' ' || lastname || ' ' || mailaddress) gin_trgm_ops)",
+            "create index if not exists idx_companycontact_search_trgm on companycontact " +
+                    "using gin (lower(companyname || ' ' || mailaddress) gin_trgm_ops)",
+            "create index if not exists idx_naturalcontact_firstname_prefix on naturalcontact (lower(firstname) text_pattern_ops)",
+            "create index if not exists idx_naturalcontact_lastname_prefix on naturalcontact (lower(lastname) text_pattern_ops)",
+            "create index if not exists idx_naturalcontact_mailaddress_prefix on naturalcontact (lower(mailaddress) text_pattern_ops)",
+            "create index if not exists idx_companycontact_companyname_prefix on companycontact (lower(companyname) text_pattern_ops)",
+            "create index if not exists idx_companycontact_mailaddress_prefix on companycontact (lower(mailaddress) text_pattern_ops)"
+    );
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ContactSearchIndex searchIndex;
+
+    @ConfigProperty(name = "leomail.contact.search.default-limit", defaultValue = "50")
+    int defaultLimit;
+
+    @ConfigProperty(name = "leomail.contact.search.max-limit", defaultValue = "200")
+    int maxLimit;
+
+    private volatile boolean trigramAvailable;
+
+    /**
+     * Creates the pg_trgm extension and the search indexes. Without the extension (e.g. missing privileges)
+     * the search still works, but ranks by prefix only and scans for substring matches.
+     */
+    void onStart(@Observes StartupEvent event) {
+        try {
+            QuarkusTransaction.requiringNew().run(() -> em.createNativeQuery("create extension if not exists pg_trgm").executeUpdate());
+            trigramAvailable = true;
+        } catch (Exception e) {
+            LOGGER.warnf("pg_trgm is not available, contact search falls back to unranked matching: %s", e.getMessage());
+        }
+        for (String index : INDEXES) {
+            if (!trigramAvailable && index.contains("gin_trgm_ops")) {
+                continue;
+            }
+            try {
+                QuarkusTransaction.requiringNew().run(() -> em.createNativeQuery(index).executeUpdate());
+            } catch (Exception e) {
+                LOGGER.warnf("Could not create contact search index: %s", e.getMessage());
+            }
+        }
+        LOGGER.infof("Contact search indexes ready (trigram ranking %s).", trigramAvailable ? "enabled" : "disabled");
+    }
+
+    /**
+     * Searches natural contacts by first name, last name and mail address.
+     *
+     * @param searchTerm Search term
+     * @param own        Own user ID to exclude
+     * @param limit      Maximum number of results, null for the default
+     * @param cursor     Cursor of the previous page, null for the first page
+     * @return Ranked page of found natural contacts
+     */
+    public ContactSearchPage<NaturalContactSearchDTO> searchNaturalContacts(String searchTerm, String own, Integer limit, String cursor) {
+        if (searchIndex.isReady()) {
+            return searchIndex.search(searchTerm, own, pageSize(limit), cursor, NaturalContactSearchDTO.class);
+        }
+        return search("select c.id, c.firstname, c.lastname, c.mailaddress", "naturalcontact c",
+                NATURAL_DOCUMENT, List.of("c.firstname", "c.lastname", "c.mailaddress"),
+                searchTerm, own, limit, cursor,
+                row -> new NaturalContactSearchDTO((String) row[0], (String) row[1], (String) row[2], (String) row[3]));
+    }
+
+    /**
+     * Searches company contacts by company name and mail address.
+     *
+     * @param searchTerm Search term
+     * @param own        Own user ID to exclude
+     * @param limit      Maximum number of results, null for the default
+     * @param cursor     Cursor of the previous page, null for the first page
+     * @return Ranked page of found company contacts
+     */
+    public ContactSearchPage<CompanyContactSearchDTO> searchCompanyContacts(String searchTerm, String own, Integer limit, String cursor) {
+        if (searchIndex.isReady()) {
+            return searchIndex.search(searchTerm, own, pageSize(limit), cursor, CompanyContactSearchDTO.class);
+        }
+        return search("select c.id, c.companyname, c.mailaddress", "companycontact c",
+                COMPANY_DOCUMENT, List.of("c.companyname", "c.mailaddress"),
+                searchTerm, own, limit, cursor,
+                row -> new CompanyContactSearchDTO((String) row[0], (String) row[1], (String) row[2]));
+    }
+
+    /**
+     * Searches natural and company contacts in one statement, ranked together as in the single-type searches.
+     *
+     * @param searchTerm Search term
+     * @param own        Own user ID to exclude
+     * @param limit      Maximum number of results, null for the default
+     * @param cursor     Cursor of the previous page, null for the first page
+     * @return Ranked page of found contacts of both types
+     */
+    public ContactSearchPage<ContactSearchResult> searchAllContacts(String searchTerm, String own, Integer limit, String cursor) {
+        if (searchIndex.isReady()) {
+            return searchIndex.search(searchTerm, own, pageSize(limit), cursor, ContactSearchResult.class);
+        }
+        String term = normalize(searchTerm);
+        String sql = branch("select c.id, 'natural' as kind, c.firstname, c.lastname, cast(null as varchar) as companyname, c.mailaddress",
+                "naturalcontact c", NATURAL_DOCUMENT, List.of("c.firstname", "c.lastname", "c.mailaddress"), term) +
+                " union all " +
+                branch("select c.id, 'company', null, null, c.companyname, c.mailaddress",
+                        "companycontact c", COMPANY_DOCUMENT, List.of("c.companyname", "c.mailaddress"), term);
+        return page(sql, term, own, limit, cursor,
+                row -> "natural".equals(row[1])
+                        ? new NaturalContactSearchDTO((String) row[0], (String) row[2], (String) row[3], (String) row[5])
+                        : new CompanyContactSearchDTO((String) row[0], (String) row[4], (String) row[5]));
+    }
+
+    private <T> ContactSearchPage<T> search(String select, String from, String document, List<String> prefixColumns,
+                                            String searchTerm, String own, Integer limit, String cursor,
+                                            Function<Object[], T> mapper) {
+        String term = normalize(searchTerm);
+        return page(branch(select, from, document, prefixColumns, term), term, own, limit, cursor, mapper);
+    }
+
+    /**
+     * Builds the matching rows of one contact table, followed by their prefix_rank and score columns.
+     */
+    private String branch(String select, String from, String document, List<String> prefixColumns, String term) {
+        String prefixMatch = String.join(" or ", prefixColumns.stream().map(column -> "lower(" + column + ") like :prefix").toList());
+        String match = term.isEmpty() ? "true"
+                : term.length() < MIN_SUBSTRING_LENGTH ? prefixMatch
+                : document + " like :contains";
+        String score = trigramAvailable && !term.isEmpty() ? "word_similarity(:term, " + document + ")" : "cast(0 as real)";
+        return select + ", case when " + prefixMatch + " then 1 else 0 end as prefix_rank, " + score + " as score " +
+                "from " + from + " where c.id <> :own and (" + match + ")";
+    }
+
+    /**
+     * Orders the rows of the given branches together and returns the page after the cursor.
+     */
+    private <T> ContactSearchPage<T> page(String branches, String term, String own, Integer limit, String cursor,
+                                          Function<Object[], T> mapper) {
+        int pageSize = pageSize(limit);
+        Cursor after = Cursor.decode(cursor);
+
+        String sql = "select * from (" + branches + ") r " +
+                (after == null ? "" : "where r.prefix_rank < :cursorPrefix or (r.prefix_rank = :cursorPrefix " +
+                        "and (r.score < :cursorScore or (r.score = :cursorScore and r.id > :cursorId))) ") +
+                "order by r.prefix_rank desc, r.score desc, r.id limit :limit";
+
+        String escaped = escapeLike(term);
+        Query query = em.createNativeQuery(sql)
+                .setParameter("own", own == null ? "" : own)
+                .setParameter("prefix", escaped + "%")
+                .setParameter("limit", pageSize + 1);
+        if (sql.contains(":contains")) {
+            query.setParameter("contains", "%" + escaped + "%");
+        }
+        if (sql.contains(":term")) {
+            query.setParameter("term", term);
+        }
+        if (after != null) {
+            query.setParameter("cursorPrefix", after.prefixRank())
+                    .setParameter("cursorScore", after.score())
+                    .setParameter("cursorId", after.id());
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.getResultList();
+        List<T> results = new ArrayList<>(Math.min(rows.size(), pageSize));
+        for (int i = 0; i < rows.size() && i < pageSize; i++) {
+            results.add(mapper.apply(rows.get(i)));
+        }
+        String nextCursor = null;
+        if (rows.size() > pageSize) {
+            Object[] last = rows.get(pageSize - 1);
+            int columns = last.length;
+            nextCursor = new Cursor(((Number) last[columns - 2]).intValue(), ((Number) last[columns - 1]).floatValue(),
+                    (String) last[0]).encode();
+        }
+        return new ContactSearchPage<>(results, nextCursor);
+    }
+
+    private int pageSize(Integer limit) {
+        if (limit == null) {
+            return defaultLimit;
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        return Math.min(limit, maxLimit);
+    }
+
+    private static String normalize(String searchTerm) {
+        return searchTerm == null ? "" : searchTerm.trim().toLowerCase();
+    }
+
+    private static String escapeLike(String term) {
+        return term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Position after the last result of a page: its rank, score and ID.
+     */
+    private record Cursor(int prefixRank, float score, String id) {
+
+        String encode() {
+            String value = prefixRank + ":" + score + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+                return new Cursor(Integer.parseInt(parts[0]), Float.parseFloat(parts[1]), parts[2]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+    }
+}
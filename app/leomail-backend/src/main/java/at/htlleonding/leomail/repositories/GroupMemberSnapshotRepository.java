@@ -0,0 +1,139 @@
+package at.htlleonding.leomail.repositories;
+
+import at.htlleonding.leomail.entities.Contact;
+import at.htlleonding.leomail.entities.Group;
+import at.htlleonding.leomail.entities.GroupMemberSnapshot;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.jboss.logging.Logger;
+
+import java.util.*;
+
+/**
+ * Keeps the expanded membership of every group as a snapshot, so that campaigns and member lists
+ * read the member IDs from one row instead of walking the group's member collection.
+ * Snapshots are replaced when a group is saved and dropped when a group or one of its members
+ * changes in a way the snapshot cannot follow; a missing snapshot is rebuilt on the next read.
+ */
+@ApplicationScoped
+public class GroupMemberSnapshotRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(GroupMemberSnapshotRepository.class);
+
+    @Inject
+    EntityManager em;
+
+    /**
+     * Returns the snapshot of a group, building it if there is none yet.
+     *
+     * @param groupId ID of the group
+     * @return The snapshot, or empty if the group does not exist
+     */
+    @Transactional
+    public Optional<GroupMemberSnapshot> get(String groupId) {
+        if (Group.count("id", groupId) == 0) {
+            // a snapshot left over from a deleted group must not be mailed anymore
+            invalidate(groupId);
+            return Optional.empty();
+        }
+        GroupMemberSnapshot snapshot = em.find(GroupMemberSnapshot.class, groupId);
+        if (snapshot != null) {
+            return Optional.of(snapshot);
+        }
+
+        Map<String, String> members = new HashMap<>();
+        for (String entity : List.of("NaturalContact", "CompanyContact")) {
+            em.createQuery("select c.id, c.mailAddress from " + entity + " c " +
+                            "where c.id in (select m.id from Group g join g.members m where g.id = :groupId)", Object[].class)
+                    .setParameter("groupId", groupId)
+                    .getResultList()
+                    .forEach(row -> members.put((String) row[0], (String) row[1]));
+        }
+        LOGGER.debugf("Built member snapshot of group %s with %d members.", groupId, members.size());
+        return Optional.of(upsert(groupId, members));
+    }
+
+    /**
+     * Replaces the snapshot of a group with its current members; called whenever a group is saved.
+     *
+     * @param groupId ID of the group
+     * @param members Members of the group
+     */
+    @Transactional
+    public void store(String groupId, Collection<Contact> members) {
+        Map<String, String> addresses = new HashMap<>();
+        for (Contact member : members) {
+            addresses.put(member.id, member.getMailAddress());
+        }
+        upsert(groupId, addresses);
+    }
+
+    /**
+     * Removes the snapshot of a group.
+     *
+     * @param groupId ID of the group
+     */
+    @Transactional
+    public void invalidate(String groupId) {
+        em.createQuery("delete from GroupMemberSnapshot s where s.groupId = :groupId")
+                .setParameter("groupId", groupId)
+                .executeUpdate();
+    }
+
+    /**
+     * Removes the snapshots of all groups of a project; called before the project and its groups are deleted.
+     *
+     * @param projectId ID of the project
+     */
+    @Transactional
+    public void invalidateProject(String projectId) {
+        em.createQuery("delete from GroupMemberSnapshot s where s.groupId in (select g.id from Group g where g.project.id = :projectId)")
+                .setParameter("projectId", projectId)
+                .executeUpdate();
+    }
+
+    /**
+     * Removes the snapshots of all groups the contact is a member of, e.g. after its mail address changed.
+     *
+     * @param contactId ID of the contact
+     */
+    @Transactional
+    public void invalidateContaining(String contactId) {
+        int removed = em.createNativeQuery("delete from group_member_snapshot where ?1 = any(member_ids)")
+                .setParameter(1, contactId)
+                .executeUpdate();
+        if (removed > 0) {
+            LOGGER.debugf("Dropped %d group member snapshots containing contact %s.", removed, contactId);
+        }
+    }
+
+    /**
+     * Inserts or replaces the snapshot. A native upsert, so that two requests building the snapshot
+     * of the same group at the same time do not fail on the primary key.
+     */
+    private GroupMemberSnapshot upsert(String groupId, Map<String, String> members) {
+        String[] memberIds = members.keySet().toArray(String[]::new);
+        Arrays.sort(memberIds);
+        String[] mailAddresses = new String[memberIds.length];
+        for (int i = 0; i < memberIds.length; i++) {
+            mailAddresses[i] = members.get(memberIds[i]);
+        }
+        GroupMemberSnapshot snapshot = new GroupMemberSnapshot(groupId, memberIds, mailAddresses);
+
+        GroupMemberSnapshot managed = em.find(GroupMemberSnapshot.class, groupId);
+        if (managed != null) {
+            em.detach(managed);
+        }
+        em.createNativeQuery("insert into group_member_snapshot(group_id, member_ids, mail_addresses, built_at) " +
+                        "values (?1, ?2, ?3, ?4) on conflict (group_id) do update " +
+                        "set member_ids = excluded.member_ids, mail_addresses = excluded.mail_addresses, built_at = excluded.built_at")
+                .setParameter(1, snapshot.groupId)
+                .setParameter(2, snapshot.memberIds)
+                .setParameter(3, snapshot.mailAddresses)
+                .setParameter(4, snapshot.builtAt)
+                .executeUpdate();
+        return snapshot;
+    }
+}
@@ -8,7 +8,6 @@ import at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO;
 import at.htlleonding.leomail.model.dto.groups.GroupDetailDTO;
 import at.htlleonding.leomail.model.dto.groups.GroupOverviewDTO;
 import at.htlleonding.leomail.model.exceptions.projects.ProjectNotExistsException;
-import at.htlleonding.leomail.services.KeycloakAdminService;
 import at.htlleonding.leomail.services.PermissionService;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -16,6 +15,8 @@ import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.jboss.logging.Logger;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -26,12 +27,16 @@ import java.util.stream.Collectors;
 public class GroupRepository {
 
     private static final Logger LOGGER = Logger.getLogger(GroupRepository.class);
+    private static final int MEMBER_PAGE_SIZE = 1000;
 
     @Inject
     EntityManager em;
 
     @Inject
-    KeycloakAdminService keycloakAdminService;
+    ContactRepository contactRepository;
+
+    @Inject
+    GroupMemberSnapshotRepository groupMemberSnapshotRepository;
 
     @Inject
     PermissionService permissionService;
@@ -106,10 +111,10 @@ public class GroupRepository {
         validateMembersContactType(members);
 
         HashSet<Contact> memberList = fetchExistingContacts(members);
-        addKeycloakUsers(memberList, members);
 
         Group newGroup = new Group(name, description, Contact.findById(accountId), Project.findById(projectId), memberList);
         em.persist(newGroup);
+        groupMemberSnapshotRepository.store(newGroup.id, memberList);
         LOGGER.infof("Group '%s' successfully created.", name);
     }
 
@@ -123,6 +128,7 @@ public class GroupRepository {
                 .executeUpdate();
 
         if (deletedCount > 0) {
+            groupMemberSnapshotRepository.invalidate(groupId);
             LOGGER.infof("Group with ID %s successfully deleted.", groupId);
         } else {
             LOGGER.warnf("Attempted to delete non-existent group with ID %s.", groupId);
@@ -150,8 +156,8 @@ public class GroupRepository {
         group.description = description;
 
         HashSet<Contact> memberList = fetchExistingContacts(members);
-        addKeycloakUsers(memberList, members);
         group.members = memberList;
+        groupMemberSnapshotRepository.store(groupId, memberList);
 
         LOGGER.infof("Group with ID %s successfully updated.", groupId);
     }
@@ -171,32 +177,29 @@ public class GroupRepository {
     public List<ContactSearchResult> getGroupMembers(String groupId, String projectId, String userId) {
         validateGroupAndProject(projectId, userId, groupId);
 
-        Group group = Group.findById(groupId);
-        if (group == null || group.members == null) {
+        GroupMemberSnapshot snapshot = groupMemberSnapshotRepository.get(groupId).orElse(null);
+        if (snapshot == null || snapshot.memberIds.length == 0) {
             return Collections.emptyList();
         }
 
-        return group.members.stream()
-                .map(contact -> {
-                    if (contact instanceof NaturalContact naturalContact) {
-                        return new NaturalContactSearchDTO(
-                                naturalContact.id,
-                                naturalContact.firstName,
-                                naturalContact.lastName,
-                                naturalContact.mailAddress
-                        );
-                    } else if (contact instanceof CompanyContact companyContact) {
-                        return new CompanyContactSearchDTO(
-                                companyContact.id,
-                                companyContact.companyName,
-                                companyContact.mailAddress
-                        );
-                    } else {
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
+        List<ContactSearchResult> members = new ArrayList<>(snapshot.memberIds.length);
+        List<String> memberIds = Arrays.asList(snapshot.memberIds);
+        for (int from = 0; from < memberIds.size(); from += MEMBER_PAGE_SIZE) {
+            List<String> ids = memberIds.subList(from, Math.min(from + MEMBER_PAGE_SIZE, memberIds.size()));
+            members.addAll(em.createQuery(
+                            "SELECT NEW at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO(c.id, c.firstName, c.lastName, c.mailAddress) " +
+                                    "FROM NaturalContact c WHERE c.id IN :ids",
+                            NaturalContactSearchDTO.class)
+                    .setParameter("ids", ids)
+                    .getResultList());
+            members.addAll(em.createQuery(
+                            "SELECT NEW at.htlleonding.leomail.model.dto.contacts.CompanyContactSearchDTO(c.id, c.companyName, c.mailAddress) " +
+                                    "FROM CompanyContact c WHERE c.id IN :ids",
+                            CompanyContactSearchDTO.class)
+                    .setParameter("ids", ids)
+                    .getResultList());
+        }
+        return members;
     }
 
     /**
@@ -285,47 +288,19 @@ public class GroupRepository {
     }
 
     /**
-     * Adds Keycloak users to the member list if they don't already exist.
+     * Stores natural members that only exist in Keycloak locally, all in one batch. Has to be called before
+     * {@link #createGroup} or {@link #updateGroup}, which only add members that are stored locally; it is not
+     * part of their transaction, so that the transaction does not wait for Keycloak.
+     *
+     * @param members Members of the group
      */
-    private void addKeycloakUsers(HashSet<Contact> memberList, List<?> members) {
-        for (Object memberDTO : members) {
-            String memberId;
-            if (memberDTO instanceof NaturalContactSearchDTO naturalDTO) {
-                memberId = naturalDTO.id();
-            } else if (memberDTO instanceof CompanyContactSearchDTO companyDTO) {
-                memberId = companyDTO.id();
-            } else {
-                throw new IllegalArgumentException("Unknown member type.");
-            }
-
-            Contact existingContact = Contact.findById(memberId);
-            if (existingContact == null) {
-                // Add new contact fetched from Keycloak
-                if (memberDTO instanceof NaturalContactSearchDTO) {
-                    NaturalContactSearchDTO userDTO = keycloakAdminService.findUserAsNaturalContactSearchDTO(memberId);
-                    if (userDTO != null) {
-                        NaturalContact newContact = new NaturalContact();
-                        newContact.firstName = userDTO.firstName();
-                        newContact.lastName = userDTO.lastName();
-                        newContact.mailAddress = userDTO.mailAddress();
-                        newContact.kcUser = true;
-                        newContact.id = userDTO.id();
-                        em.persist(newContact);
-                        // Add to memberList only if not already present
-                        if (!memberList.contains(newContact)) {
-                            memberList.add(newContact);
-                        }
-                    } else {
-                        LOGGER.warnf("User with ID %s not found in Keycloak.", memberId);
-                    }
-                }
-            } else {
-                // Ensure not to add duplicate contacts
-                if (!memberList.contains(existingContact)) {
-                    memberList.add(existingContact);
-                }
-            }
-        }
+    public void importKeycloakMembers(List<?> members) {
+        if (members == null) return;
+        List<String> keycloakIds = members.stream()
+                .filter(NaturalContactSearchDTO.class::isInstance)
+                .map(member -> ((NaturalContactSearchDTO) member).id())
+                .toList();
+        contactRepository.importMissingKeycloakUsers(keycloakIds);
     }
 
     /**
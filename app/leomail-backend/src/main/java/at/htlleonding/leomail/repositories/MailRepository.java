@@ -1,29 +1,31 @@
 package at.htlleonding.leomail.repositories;
 
 import at.htlleonding.leomail.entities.*;
-import at.htlleonding.leomail.model.FromMailDTO;
-import at.htlleonding.leomail.model.MailType;
+import at.htlleonding.leomail.model.MailsEnqueuedEvent;
 import at.htlleonding.leomail.model.SMTPInformation;
 import at.htlleonding.leomail.model.SenderCredentials;
+import at.htlleonding.leomail.model.dto.contacts.RecipientDTO;
+import at.htlleonding.leomail.model.dto.template.DeadLetterDTO;
+import at.htlleonding.leomail.model.dto.template.SendJobStatusDTO;
+import at.htlleonding.leomail.model.enums.DeliveryMode;
+import at.htlleonding.leomail.model.enums.DeliveryStatus;
+import at.htlleonding.leomail.model.enums.SendJobState;
 import at.htlleonding.leomail.services.*;
-import jakarta.activation.DataHandler;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
-import jakarta.mail.*;
-import jakarta.mail.internet.InternetAddress;
-import jakarta.mail.internet.MimeBodyPart;
-import jakarta.mail.internet.MimeMessage;
-import jakarta.mail.internet.MimeMultipart;
-import jakarta.mail.util.ByteArrayDataSource;
+import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.InputStream;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.EnumMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Optional;
 
 @ApplicationScoped
 public class MailRepository {
@@ -37,9 +39,6 @@ public class MailRepository {
     @Inject
     GroupSplitter groupSplitter;
 
-    @Inject
-    EncryptionService encryptionService;
-
     @Inject
     MailService mailService;
 
@@ -47,152 +46,26 @@ public class MailRepository {
     AttachmentRepository attachmentRepository;
 
     @Inject
-    StorageService storageService;
+    Event<MailsEnqueuedEvent> mailsEnqueued;
 
-    /**
-     * Versendet alle Mails, die zu einem SentTemplate gehören.
-     * Nutzt eine gemeinsame Hilfsmethode, um Duplizierung zu vermeiden.
-     */
-    @Transactional
-    public void sendMail(Long sentTemplateId) {
-        SentTemplate usedTemplate = SentTemplate.findById(sentTemplateId);
-        if (usedTemplate == null) {
-            LOGGER.errorf("SentTemplate with ID %d not found.", sentTemplateId);
-            throw new IllegalArgumentException("SentTemplate not found");
-        }
-        if (usedTemplate.mails.isEmpty()) {
-            LOGGER.errorf("No mails to send for SentTemplate ID: %d", sentTemplateId);
-            throw new IllegalArgumentException("No mails to send");
-        }
-        if (usedTemplate.sentOn != null) {
-            LOGGER.errorf("Template already sent on %s.", usedTemplate.sentOn);
-            throw new IllegalArgumentException("Template already sent");
-        }
+    @ConfigProperty(name = "leomail.render.late-binding", defaultValue = "false")
+    boolean lateBinding;
 
-        FromMailDTO fromMailDTO = new FromMailDTO(usedTemplate.mailType, usedTemplate.senderId);
-        SenderCredentials senderCredentials = getSenderCredentials(fromMailDTO, usedTemplate.senderId);
-        boolean credentialsValid = mailService.verifyOutlookCredentials(senderCredentials.email, senderCredentials.password);
-        if (!credentialsValid) {
-            LOGGER.error("Invalid email credentials.");
-            throw new IllegalArgumentException("Invalid email credentials.");
-        }
-
-        usedTemplate.sentOn = LocalDateTime.now();
-        sendEmails(usedTemplate, senderCredentials);
-        LOGGER.infof("Mails for SentTemplate ID %d sent successfully.", sentTemplateId);
-    }
+    @ConfigProperty(name = "leomail.recipients.chunk-size", defaultValue = "500")
+    int recipientChunkSize;
 
-    /**
-     * Gemeinsame Methode zum Versenden der E-Mails inkl. Anhängen.
-     */
-    private void sendEmails(SentTemplate usedTemplate, SenderCredentials senderCredentials) {
-        LOGGER.infof("Initiating sending of %d mails.", usedTemplate.mails.size());
-        for (SentMail sentMail : usedTemplate.mails) {
-            try {
-                String recipientEmail = sentMail.contact.getMailAddress();
-                if (recipientEmail == null) {
-                    LOGGER.errorf("Recipient email is missing for contact ID %s.", sentMail.contact.id);
-                    continue;
-                }
-                sendEmail(senderCredentials.email, senderCredentials.password,
-                        recipientEmail, sentMail.usedTemplate.template.headline,
-                        sentMail.actualContent, usedTemplate.attachments);
-                sentMail.sent = true;
-            } catch (Exception e) {
-                LOGGER.errorf("Error sending email to contact ID %s: %s", sentMail.contact.id, e.getMessage());
-            }
-        }
-    }
-
-    /**
-     * Versendet eine einzelne E-Mail über Outlook SMTP mit Anhängen.
-     */
-    private void sendEmail(String fromEmail, String password, String toEmail, String subject, String content, List<Attachment> attachments) throws Exception {
-        Properties properties = new Properties();
-        properties.put("mail.smtp.host", "smtp-mail.outlook.com");
-        properties.put("mail.smtp.port", "587");
-        properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
-
-        Session session = Session.getInstance(properties, new Authenticator() {
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(fromEmail.replace("students.htl-leonding.ac.at", "htblaleonding.onmicrosoft.com"), password);
-            }
-        });
-
-        Message message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(fromEmail));
-        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(toEmail));
-        message.setSubject(subject);
-        message.setHeader("Content-Type", "text/html");
-
-        Multipart multipart = new MimeMultipart();
-
-        MimeBodyPart textBodyPart = new MimeBodyPart();
-        textBodyPart.setContent(content, "text/html; charset=utf-8");
-        multipart.addBodyPart(textBodyPart);
-
-        for (Attachment attachment : attachments) {
-            MimeBodyPart attachmentBodyPart = new MimeBodyPart();
-            InputStream is = storageService.downloadFile(attachment.filePath);
-            ByteArrayDataSource source = new ByteArrayDataSource(is, attachment.contentType);
-            attachmentBodyPart.setDataHandler(new DataHandler(source));
-            attachmentBodyPart.setFileName(attachment.fileName);
-            multipart.addBodyPart(attachmentBodyPart);
-        }
-        message.setContent(multipart);
-        Transport.send(message);
-    }
-
-    private SenderCredentials getSenderCredentials(FromMailDTO fromMailDTO, String uid) {
-        String senderEmail;
-        String senderPassword;
-        if (fromMailDTO == null) {
-            LOGGER.error("From information is missing.");
-            throw new IllegalArgumentException("From information is required.");
-        }
-        MailType mailType = fromMailDTO.mailType();
-        String senderId = fromMailDTO.id();
-        if (mailType == MailType.PROJECT) {
-            Project project = Project.findById(senderId);
-            if (project == null) {
-                LOGGER.errorf("Project with ID %s not found.", senderId);
-                throw new IllegalArgumentException("Project not found");
-            }
-            senderEmail = project.mailAddress;
-            senderPassword = project.password;
-            if (senderEmail == null || senderPassword == null) {
-                LOGGER.error("Project email address or password is missing.");
-                throw new IllegalArgumentException("Project email address or password is missing.");
-            }
-            senderPassword = encryptionService.decrypt(senderPassword);
-        } else if (mailType == MailType.PERSONAL) {
-            NaturalContact sender = NaturalContact.findById(uid);
-            if (sender == null) {
-                LOGGER.errorf("User with ID %s not found.", senderId);
-                throw new IllegalArgumentException("User not found");
-            }
-            senderEmail = sender.mailAddress;
-            senderPassword = sender.encryptedOutlookPassword;
-            if (senderEmail == null || senderPassword == null) {
-                LOGGER.error("User email address or password is missing.");
-                throw new IllegalArgumentException("User email address or password is missing.");
-            }
-            senderPassword = encryptionService.decrypt(senderPassword);
-        } else {
-            LOGGER.error("Invalid mail type.");
-            throw new IllegalArgumentException("Invalid mail type.");
-        }
-        return new SenderCredentials(senderEmail, senderPassword);
-    }
+    @ConfigProperty(name = "leomail.progress.rate-window", defaultValue = "PT5M")
+    Duration rateWindow;
 
     /**
-     * Versendet E-Mails basierend auf einer Vorlage, SMTP-Informationen und Anhängen.
-     * Falls ein zukünftiger Sendezeitpunkt angegeben ist, wird nur das Template persistiert
-     * und der Scheduler übernimmt den Versand. Andernfalls wird sofort versendet.
+     * Legt E-Mails basierend auf einer Vorlage, SMTP-Informationen und Anhängen in der Outbox ab.
+     * Versendet wird nicht in dieser Transaktion, sondern vom OutboxWorker: sofort nach dem Commit,
+     * bzw. bei einem zukünftigen Sendezeitpunkt, sobald dieser erreicht ist.
+     *
+     * @return ID des SentTemplates, die zugleich als Job-ID für die Statusabfrage dient
      */
     @Transactional
-    public void sendMailsByTemplate(String projectId, String accountId, SMTPInformation smtpInformation, List<Attachment> attachments) {
+    public Long sendMailsByTemplate(String projectId, String accountId, SMTPInformation smtpInformation, List<Attachment> attachments) {
         LOGGER.infof("Starting to send mails by template. Project ID: %s, Account ID: %s, Scheduled At: %s",
                 projectId, accountId, smtpInformation.scheduledAt());
 
@@ -211,18 +84,13 @@ public class MailRepository {
             throw new IllegalArgumentException("Template not found");
         }
 
-        List<Contact> receivers = groupSplitter.getAllContacts(
-                smtpInformation.receiver().groups(),
-                smtpInformation.receiver().contacts()
-        );
-        LOGGER.infof("Total Receivers: %d", receivers.size());
-        if (receivers.isEmpty()) {
-            LOGGER.error("No valid receivers with email addresses found.");
-            throw new IllegalArgumentException("No valid receivers with email addresses found");
-        }
-
-        List<String> renderedTemplates = templateBuilder.renderTemplates(template.id, receivers, smtpInformation.personalized());
-        SenderCredentials senderCredentials = getSenderCredentials(smtpInformation.from(), accountId);
+        // nicht personalisierte Vorlagen, deren Inhalt für alle Empfänger gleich ist, werden einmal gerendert und per BCC versendet
+        Optional<String> sharedContent = smtpInformation.personalized()
+                ? Optional.empty()
+                : templateBuilder.renderShared(template.id);
+        // im Late-Binding-Modus werden die Inhalte erst unmittelbar vor dem Versand gerendert
+        boolean lateRender = sharedContent.isEmpty() && lateBinding;
+        SenderCredentials senderCredentials = mailService.getSenderCredentials(smtpInformation.from(), accountId);
         boolean credentialsValid = mailService.verifyOutlookCredentials(senderCredentials.email, senderCredentials.password);
         if (!credentialsValid) {
             LOGGER.error("Invalid email credentials.");
@@ -244,22 +112,177 @@ public class MailRepository {
             LOGGER.debugf("Attachment '%s' hinzugefügt zu SentTemplate.", attachment.fileName);
         }
 
-        for (int i = 0; i < renderedTemplates.size(); i++) {
-            SentMail sentMail = new SentMail(receivers.get(i), usedTemplate, renderedTemplates.get(i));
-            usedTemplate.mails.add(sentMail);
-            LOGGER.debugf("Created SentMail for Contact ID %s.", sentMail.contact.id);
+        usedTemplate.personalized = smtpInformation.personalized();
+        if (lateRender) {
+            usedTemplate.deliveryMode = DeliveryMode.LATE_RENDER;
+        } else if (sharedContent.isPresent()) {
+            usedTemplate.deliveryMode = DeliveryMode.BCC_BATCH;
+            usedTemplate.sharedContent = sharedContent.get();
         }
-
         usedTemplate.persist();
+        Long sentTemplateId = usedTemplate.id;
+        DeliveryMode deliveryMode = usedTemplate.deliveryMode;
+        boolean renderNow = deliveryMode == DeliveryMode.INDIVIDUAL;
+
+        // Empfänger werden seitenweise gelesen und je Seite als SentMails geschrieben; danach wird der
+        // Persistenzkontext geleert, damit auch bei sehr großen Gruppen nur eine Seite im Speicher liegt
+        EntityManager em = SentMail.getEntityManager();
+        int[] created = new int[1];
+        int receiverCount = groupSplitter.streamRecipients(
+                smtpInformation.receiver().groups(),
+                smtpInformation.receiver().contacts(),
+                recipientChunkSize,
+                receivers -> {
+                    List<String> renderedTemplates = renderNow
+                            ? templateBuilder.renderTemplates(template.id, receivers, smtpInformation.personalized())
+                            : null;
+                    SentTemplate sentTemplate = em.getReference(SentTemplate.class, sentTemplateId);
+                    for (int i = 0; i < receivers.size(); i++) {
+                        String content = null;
+                        if (renderNow) {
+                            content = renderedTemplates.get(i);
+                            if (content == null) {
+                                LOGGER.errorf("Template could not be rendered for Contact ID %s, skipping.", receivers.get(i).id());
+                                continue;
+                            }
+                        }
+                        em.persist(new SentMail(contactReference(receivers.get(i)), sentTemplate, content));
+                        created[0]++;
+                    }
+                    em.flush();
+                    em.clear();
+                });
+        LOGGER.infof("Total Receivers: %d", receiverCount);
+        if (receiverCount == 0) {
+            LOGGER.error("No valid receivers with email addresses found.");
+            throw new IllegalArgumentException("No valid receivers with email addresses found");
+        }
 
         if (smtpInformation.scheduledAt() == null || !smtpInformation.scheduledAt().isAfter(LocalDateTime.now())) {
-            sendEmails(usedTemplate, senderCredentials);
-            usedTemplate.sentOn = LocalDateTime.now();
+            mailsEnqueued.fire(new MailsEnqueuedEvent(sentTemplateId));
         }
-        LOGGER.info("MailsByTemplate process completed successfully.");
+        LOGGER.infof("%d mails for SentTemplate ID %d written to the outbox (%s).", created[0], sentTemplateId, deliveryMode);
+        return sentTemplateId;
+    }
+
+    /**
+     * Verweis auf den Kontakt eines Empfängers, ohne den Kontakt selbst zu laden.
+     */
+    private Contact contactReference(RecipientDTO receiver) {
+        return Contact.getEntityManager().getReference(Contact.class, receiver.id());
     }
 
-    public List<SentMail> getAllUnsentMails() {
-        return SentMail.find("sent = false and usedTemplate.scheduledAt < ?1", LocalDateTime.now()).list();
+    /**
+     * Liefert alle endgültig fehlgeschlagenen Mails eines Projekts (Dead Letters) mit der letzten SMTP-Antwort.
+     *
+     * @param projectId ID des Projekts
+     * @return Fehlgeschlagene Mails, neueste zuerst
+     */
+    public List<DeadLetterDTO> getDeadLetters(String projectId) {
+        List<SentMail> mails = SentMail.find(
+                        "select m from SentMail m join fetch m.usedTemplate t join fetch t.template join fetch m.contact " +
+                                "where m.status = ?1 and t.project.id = ?2 order by m.lastAttemptAt desc",
+                        DeliveryStatus.FAILED_PERMANENT, projectId)
+                .list();
+        return mails.stream()
+                .map(mail -> new DeadLetterDTO(
+                        mail.id,
+                        mail.usedTemplate.id,
+                        mail.usedTemplate.template.name,
+                        mail.contact.getMailAddress(),
+                        mail.attempts,
+                        mail.lastAttemptAt,
+                        mail.lastSmtpReply))
+                .toList();
+    }
+
+    /**
+     * Stellt endgültig fehlgeschlagene Mails erneut in die Outbox; der nächste Scheduler-Lauf versendet sie.
+     * Nur die angegebenen Mails werden erneut versendet, nicht die gesamte Vorlage.
+     *
+     * @param projectId ID des Projekts
+     * @param mailIds   IDs der fehlgeschlagenen Mails
+     * @return Anzahl der erneut eingereihten Mails
+     */
+    @Transactional
+    public int retryDeadLetters(String projectId, List<Long> mailIds) {
+        if (mailIds == null || mailIds.isEmpty()) {
+            throw new IllegalArgumentException("Mail IDs are required");
+        }
+        int requeued = SentMail.update(
+                "status = ?1, attempts = 0, nextAttemptAt = null, lastSmtpReply = null " +
+                        "where status = ?2 and id in ?3 and usedTemplate.id in (select t.id from SentTemplate t where t.project.id = ?4)",
+                DeliveryStatus.PENDING, DeliveryStatus.FAILED_PERMANENT, mailIds, projectId);
+        LOGGER.infof("%d dead letters of project %s requeued.", requeued, projectId);
+        return requeued;
+    }
+
+    /**
+     * Ermittelt den Fortschritt eines Versandjobs: Anzahl der Mails je Zustand, aktueller Durchsatz
+     * und geschätzte Restdauer. Der Durchsatz wird über das letzte Zeitfenster
+     * ({@code leomail.progress.rate-window}) gemessen, damit Drosselungen und Pausen die Schätzung
+     * sofort beeinflussen.
+     *
+     * @param jobId ID des SentTemplates
+     * @return Status des Jobs
+     */
+    @Transactional
+    public SendJobStatusDTO getJobStatus(Long jobId) {
+        SentTemplate usedTemplate = SentTemplate.findById(jobId);
+        if (usedTemplate == null) {
+            throw new IllegalArgumentException("Job not found");
+        }
+
+        List<Object[]> rows = SentMail.getEntityManager().createQuery(
+                        "select m.status, count(m), max(m.lastAttemptAt) from SentMail m " +
+                                "where m.usedTemplate.id = :id group by m.status", Object[].class)
+                .setParameter("id", jobId)
+                .getResultList();
+
+        Map<DeliveryStatus, Long> counts = new EnumMap<>(DeliveryStatus.class);
+        LocalDateTime lastSentAt = null;
+        for (Object[] row : rows) {
+            counts.put((DeliveryStatus) row[0], (Long) row[1]);
+            if (row[0] == DeliveryStatus.SENT) {
+                lastSentAt = (LocalDateTime) row[2];
+            }
+        }
+        long sent = counts.getOrDefault(DeliveryStatus.SENT, 0L);
+        long failed = counts.getOrDefault(DeliveryStatus.FAILED_PERMANENT, 0L);
+        long retrying = counts.getOrDefault(DeliveryStatus.RETRY_WAIT, 0L);
+        long pending = counts.getOrDefault(DeliveryStatus.PENDING, 0L) + counts.getOrDefault(DeliveryStatus.SENDING, 0L);
+        long total = sent + failed + retrying + pending;
+
+        SendJobState state;
+        if (pending + retrying == 0) {
+            state = SendJobState.COMPLETED;
+        } else if (usedTemplate.sentOn != null) {
+            state = SendJobState.RUNNING;
+        } else if (usedTemplate.scheduledAt != null && usedTemplate.scheduledAt.isAfter(LocalDateTime.now())) {
+            state = SendJobState.SCHEDULED;
+        } else {
+            state = SendJobState.QUEUED;
+        }
+
+        double throughputPerMinute = 0;
+        Long etaSeconds = null;
+        if (usedTemplate.sentOn != null && lastSentAt != null) {
+            LocalDateTime windowEnd = state == SendJobState.COMPLETED ? lastSentAt : LocalDateTime.now();
+            LocalDateTime windowStart = windowEnd.minus(rateWindow);
+            if (windowStart.isBefore(usedTemplate.sentOn)) {
+                windowStart = usedTemplate.sentOn;
+            }
+            long recentlySent = SentMail.count("usedTemplate.id = ?1 and status = ?2 and lastAttemptAt >= ?3",
+                    jobId, DeliveryStatus.SENT, windowStart);
+            long elapsedMillis = Math.max(Duration.between(windowStart, windowEnd).toMillis(), 1000);
+            throughputPerMinute = recentlySent * 60_000.0 / elapsedMillis;
+            if (state == SendJobState.RUNNING && throughputPerMinute > 0) {
+                etaSeconds = Math.round((pending + retrying) * 60 / throughputPerMinute);
+            }
+        }
+
+        return new SendJobStatusDTO(jobId, state, total, pending, retrying, sent, failed,
+                Math.round(throughputPerMinute * 10) / 10.0, etaSeconds,
+                usedTemplate.scheduledAt, usedTemplate.sentOn, lastSentAt);
     }
-}
\ No newline at end of file
+}
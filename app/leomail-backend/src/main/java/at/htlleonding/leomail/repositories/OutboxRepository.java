@@ -0,0 +1,326 @@
+package at.htlleonding.leomail.repositories;
+
+import at.htlleonding.leomail.entities.Attachment;
+import at.htlleonding.leomail.entities.SentMail;
+import at.htlleonding.leomail.entities.SentTemplate;
+import at.htlleonding.leomail.model.*;
+import at.htlleonding.leomail.model.dto.contacts.RecipientDTO;
+import at.htlleonding.leomail.model.enums.DeliveryMode;
+import at.htlleonding.leomail.model.enums.DeliveryStatus;
+import at.htlleonding.leomail.services.MailService;
+import at.htlleonding.leomail.services.TemplateBuilder;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Persistent outbox on top of {@link SentMail}. Due rows are claimed by workers with
+ * {@code FOR UPDATE SKIP LOCKED} and leased for a limited time, so that several instances
+ * can send concurrently and rows of a crashed worker are picked up again after the lease expires.
+ * <p>
+ * Delivery states: PENDING → SENDING → SENT, or on a transient failure RETRY_WAIT (retried with
+ * exponential backoff and jitter) and on a permanent failure or after the last attempt FAILED_PERMANENT.
+ */
+@ApplicationScoped
+public class OutboxRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboxRepository.class);
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    MailService mailService;
+
+    @Inject
+    TemplateBuilder templateBuilder;
+
+    @ConfigProperty(name = "leomail.outbox.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    @ConfigProperty(name = "leomail.dispatch.bcc-batch-size", defaultValue = "50")
+    int bccBatchSize;
+
+    @ConfigProperty(name = "leomail.render.late-binding.persist-content", defaultValue = "true")
+    boolean persistRenderedContent;
+
+    @ConfigProperty(name = "leomail.outbox.retry.initial-backoff", defaultValue = "PT1M")
+    Duration initialBackoff;
+
+    @ConfigProperty(name = "leomail.outbox.retry.max-backoff", defaultValue = "PT1H")
+    Duration maxBackoff;
+
+    /**
+     * Claims due mails (new ones, retries whose backoff has passed and SENDING rows whose lease expired)
+     * for a worker and marks their templates as being sent.
+     *
+     * @param workerId      ID of the claiming worker
+     * @param batchSize     Maximum number of mails to claim
+     * @param leaseDuration How long the claim is valid
+     * @return IDs of the claimed mails
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Long> claim(String workerId, int batchSize, Duration leaseDuration) {
+        LocalDateTime now = LocalDateTime.now();
+
+        List<Number> rows = em.createNativeQuery(
+                        "SELECT m.id FROM SentMail m " +
+                                "WHERE (m.status = 'PENDING' " +
+                                "OR (m.status = 'RETRY_WAIT' AND m.nextAttemptAt <= :now) " +
+                                "OR (m.status = 'SENDING' AND m.leaseUntil < :now)) " +
+                                "AND m.attempts < :maxAttempts " +
+                                "AND m.usedTemplate_id IN (SELECT t.id FROM SentTemplate t WHERE t.scheduledAt IS NULL OR t.scheduledAt <= :now) " +
+                                "ORDER BY m.id LIMIT :batchSize " +
+                                "FOR UPDATE OF m SKIP LOCKED")
+                .setParameter("maxAttempts", maxAttempts)
+                .setParameter("now", now)
+                .setParameter("batchSize", batchSize)
+                .getResultList();
+
+        List<Long> ids = rows.stream().map(Number::longValue).toList();
+        if (ids.isEmpty()) {
+            return ids;
+        }
+
+        em.createQuery("UPDATE SentMail m SET m.status = :sending, m.leaseOwner = :owner, m.leaseUntil = :until WHERE m.id IN :ids")
+                .setParameter("sending", DeliveryStatus.SENDING)
+                .setParameter("owner", workerId)
+                .setParameter("until", now.plus(leaseDuration))
+                .setParameter("ids", ids)
+                .executeUpdate();
+
+        em.createQuery("UPDATE SentTemplate t SET t.sentOn = :now WHERE t.sentOn IS NULL " +
+                        "AND t.id IN (SELECT m.usedTemplate.id FROM SentMail m WHERE m.id IN :ids)")
+                .setParameter("now", now)
+                .setParameter("ids", ids)
+                .executeUpdate();
+
+        LOGGER.debugf("Worker %s claimed %d mails.", workerId, ids.size());
+        return ids;
+    }
+
+    /**
+     * Loads everything needed to send the claimed mails, grouped by SentTemplate. Mails of BCC_BATCH
+     * campaigns are combined into one message per {@code leomail.dispatch.bcc-batch-size} recipients.
+     * Mails that cannot be sent at all (missing recipient address) are marked as permanently failed here,
+     * mails whose sender credentials cannot be loaded are recorded as failed attempts.
+     *
+     * @param ids IDs of claimed mails
+     * @return One batch per SentTemplate
+     */
+    @Transactional
+    public List<OutboxBatch> loadBatch(List<Long> ids) {
+        List<SentMail> mails = em.createQuery(
+                        "SELECT m FROM SentMail m JOIN FETCH m.usedTemplate t JOIN FETCH t.template JOIN FETCH m.contact " +
+                                "WHERE m.id IN :ids ORDER BY m.id", SentMail.class)
+                .setParameter("ids", ids)
+                .getResultList();
+
+        Map<Long, List<SentMail>> mailsByTemplate = new LinkedHashMap<>();
+        for (SentMail mail : mails) {
+            mailsByTemplate.computeIfAbsent(mail.usedTemplate.id, id -> new ArrayList<>()).add(mail);
+        }
+
+        List<OutboxBatch> batches = new ArrayList<>();
+        for (List<SentMail> templateMails : mailsByTemplate.values()) {
+            SentTemplate usedTemplate = templateMails.get(0).usedTemplate;
+
+            SenderCredentials senderCredentials;
+            try {
+                senderCredentials = mailService.getSenderCredentials(getFrom(usedTemplate), usedTemplate.senderId);
+            } catch (RuntimeException e) {
+                // e.g. a stored password that can no longer be decrypted; the attempts still count towards the limit
+                LOGGER.errorf(e, "Cannot send mails of SentTemplate ID %d: %s", usedTemplate.id, e.getMessage());
+                templateMails.forEach(mail -> recordFailure(mail, false, e.getMessage()));
+                continue;
+            }
+
+            Map<Long, String> lateBodies = Map.of();
+            if (usedTemplate.deliveryMode == DeliveryMode.LATE_RENDER) {
+                try {
+                    lateBodies = renderLate(usedTemplate, templateMails);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.errorf("Cannot render mails of SentTemplate ID %d: %s", usedTemplate.id, e.getMessage());
+                    templateMails.forEach(mail -> recordFailure(mail, true, e.getMessage()));
+                    continue;
+                }
+            }
+
+            String subject = usedTemplate.template.headline;
+            boolean bccBatch = usedTemplate.deliveryMode == DeliveryMode.BCC_BATCH;
+            List<OutgoingMail> outgoing = new ArrayList<>(templateMails.size());
+            List<Long> bccIds = new ArrayList<>();
+            List<String> bccRecipients = new ArrayList<>();
+            for (SentMail mail : templateMails) {
+                String recipientEmail = mail.contact.getMailAddress();
+                if (recipientEmail == null) {
+                    LOGGER.errorf("Recipient email is missing for contact ID %s.", mail.contact.id);
+                    recordFailure(mail, true, "Recipient email is missing");
+                    continue;
+                }
+                if (!bccBatch) {
+                    String content = usedTemplate.deliveryMode == DeliveryMode.LATE_RENDER ? lateBodies.get(mail.id) : mail.actualContent;
+                    if (content == null) {
+                        recordFailure(mail, true, "Template could not be rendered");
+                        continue;
+                    }
+                    outgoing.add(OutgoingMail.individual(mail.id, recipientEmail, subject, content));
+                    continue;
+                }
+                bccIds.add(mail.id);
+                bccRecipients.add(recipientEmail);
+            }
+            if (!bccIds.isEmpty()) {
+                outgoing.addAll(OutgoingMail.bccBatches(bccIds, bccRecipients, bccBatchSize, subject, usedTemplate.sharedContent));
+            }
+
+            if (!outgoing.isEmpty()) {
+                List<Attachment> attachments = new ArrayList<>(usedTemplate.attachments);
+                batches.add(new OutboxBatch(usedTemplate.id, senderCredentials, attachments, outgoing));
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Renders the bodies of a claimed chunk right before sending, with the current template and contact data.
+     * Only one chunk is held in memory at a time; the bodies are stored on the mails if configured.
+     */
+    private Map<Long, String> renderLate(SentTemplate usedTemplate, List<SentMail> mails) {
+        List<RecipientDTO> recipients = mails.stream().map(mail -> RecipientDTO.of(mail.contact)).toList();
+        List<String> rendered = templateBuilder.renderTemplates(usedTemplate.template.id, recipients, usedTemplate.personalized);
+
+        Map<Long, String> bodies = new HashMap<>();
+        for (int i = 0; i < mails.size(); i++) {
+            if (rendered.get(i) != null) {
+                bodies.put(mails.get(i).id, rendered.get(i));
+                if (persistRenderedContent) {
+                    mails.get(i).actualContent = rendered.get(i);
+                }
+            }
+        }
+        return bodies;
+    }
+
+    /**
+     * Extends the lease of mails that are still being sent by a worker, so that a long campaign
+     * is not claimed a second time by another instance while its messages are still in flight.
+     *
+     * @param workerId      ID of the worker that holds the lease
+     * @param ids           IDs of the mails still being sent
+     * @param leaseDuration New lease duration, counted from now
+     * @return Number of mails whose lease was extended
+     */
+    @Transactional
+    public int renewLease(String workerId, Collection<Long> ids, Duration leaseDuration) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return em.createQuery("UPDATE SentMail m SET m.leaseUntil = :until " +
+                        "WHERE m.id IN :ids AND m.leaseOwner = :owner AND m.status = :sending")
+                .setParameter("until", LocalDateTime.now().plus(leaseDuration))
+                .setParameter("ids", ids)
+                .setParameter("owner", workerId)
+                .setParameter("sending", DeliveryStatus.SENDING)
+                .executeUpdate();
+    }
+
+    /**
+     * Writes the send results back and releases the lease. A mail the server accepted is always
+     * marked as SENT, even if its lease was taken over in the meantime, so that it is not sent again.
+     * Failures of rows whose lease was taken over by another worker are left untouched.
+     *
+     * @param workerId ID of the worker that holds the lease
+     * @param results  Results of the send attempts
+     */
+    @Transactional
+    public void complete(String workerId, List<DispatchResult> results) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> sentIds = new ArrayList<>();
+        Map<Long, DispatchResult> failures = new HashMap<>();
+        for (DispatchResult result : results) {
+            if (result.sent()) {
+                sentIds.add(result.sentMailId());
+            } else {
+                failures.put(result.sentMailId(), result);
+            }
+        }
+
+        if (!sentIds.isEmpty()) {
+            em.createQuery("UPDATE SentMail m SET m.status = :sent, m.attempts = m.attempts + 1, m.lastAttemptAt = :now, " +
+                            "m.nextAttemptAt = NULL, m.leaseOwner = NULL, m.leaseUntil = NULL WHERE m.id IN :ids")
+                    .setParameter("sent", DeliveryStatus.SENT)
+                    .setParameter("now", now)
+                    .setParameter("ids", sentIds)
+                    .executeUpdate();
+        }
+        if (!failures.isEmpty()) {
+            List<SentMail> failedMails = em.createQuery("SELECT m FROM SentMail m WHERE m.id IN :ids AND m.leaseOwner = :owner", SentMail.class)
+                    .setParameter("ids", failures.keySet())
+                    .setParameter("owner", workerId)
+                    .getResultList();
+            for (SentMail mail : failedMails) {
+                DispatchResult result = failures.get(mail.id);
+                recordFailure(mail, result.permanent(), result.error());
+            }
+        }
+    }
+
+    /**
+     * Checks whether a SentTemplate still has mails that may be sent, i.e. whether its campaign is still running.
+     *
+     * @param sentTemplateId ID of the SentTemplate
+     * @return true if mails are pending, being sent or waiting for a retry
+     */
+    @Transactional
+    public boolean hasPendingMails(Long sentTemplateId) {
+        return em.createQuery("SELECT COUNT(m) FROM SentMail m WHERE m.usedTemplate.id = :id AND m.status IN :open", Long.class)
+                .setParameter("id", sentTemplateId)
+                .setParameter("open", List.of(DeliveryStatus.PENDING, DeliveryStatus.SENDING, DeliveryStatus.RETRY_WAIT))
+                .getSingleResult() > 0;
+    }
+
+    private FromMailDTO getFrom(SentTemplate usedTemplate) {
+        if (usedTemplate.mailType == MailType.PROJECT) {
+            return new FromMailDTO(MailType.PROJECT, usedTemplate.project.id);
+        }
+        return new FromMailDTO(usedTemplate.mailType, usedTemplate.senderId);
+    }
+
+    private void recordFailure(SentMail mail, boolean permanent, String reply) {
+        LocalDateTime now = LocalDateTime.now();
+        mail.attempts++;
+        mail.lastAttemptAt = now;
+        mail.lastSmtpReply = reply != null && reply.length() > 1024 ? reply.substring(0, 1024) : reply;
+        mail.leaseOwner = null;
+        mail.leaseUntil = null;
+
+        if (permanent || mail.attempts >= maxAttempts) {
+            mail.status = DeliveryStatus.FAILED_PERMANENT;
+            mail.nextAttemptAt = null;
+            LOGGER.warnf("Mail ID %d failed permanently after %d attempts: %s", mail.id, mail.attempts, reply);
+        } else {
+            mail.status = DeliveryStatus.RETRY_WAIT;
+            mail.nextAttemptAt = now.plus(backoff(mail.attempts));
+        }
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random,
+     * so that mails that failed together are not retried in lockstep.
+     */
+    private Duration backoff(int attempts) {
+        long delay = initialBackoff.toMillis() << Math.min(attempts - 1, 20);
+        delay = Math.min(delay, maxBackoff.toMillis());
+        return Duration.ofMillis(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+}
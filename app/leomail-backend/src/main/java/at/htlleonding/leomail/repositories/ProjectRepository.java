@@ -36,6 +36,9 @@ public class ProjectRepository {
     @Inject
     EntityManager em;
 
+    @Inject
+    GroupMemberSnapshotRepository groupMemberSnapshotRepository;
+
     /**
      * Retrieves personal projects for a given contact ID.
      *
@@ -212,6 +215,8 @@ public class ProjectRepository {
             throw new IllegalArgumentException("Project with ID " + pid + " does not exist.");
         }
 
+        // the groups are deleted with the project, their snapshots have no foreign key to follow them
+        groupMemberSnapshotRepository.invalidateProject(pid);
         project.delete();
     }
 
@@ -13,6 +13,7 @@ import at.htlleonding.leomail.model.enums.ContactType;
 import at.htlleonding.leomail.model.exceptions.greeting.NonExistingGreetingException;
 import at.htlleonding.leomail.model.exceptions.template.TemplateNameAlreadyExistsException;
 import at.htlleonding.leomail.services.PermissionService;
+import at.htlleonding.leomail.services.TemplateBuilder;
 import io.quarkus.panache.common.Sort;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -36,6 +37,9 @@ public class TemplateRepository {
     @Inject
     PermissionService permissionService;
 
+    @Inject
+    TemplateBuilder templateBuilder;
+
     /**
      * Retrieves all templates for a given project.
      */
@@ -122,6 +126,7 @@ public class TemplateRepository {
         if (!Template.deleteById(id)) {
             throw new IllegalArgumentException("Template with id " + id + " not found");
         }
+        templateBuilder.invalidate(id);
     }
 
     /**
@@ -143,6 +148,7 @@ public class TemplateRepository {
         }
         template.greeting = greeting;
         template.persist();
+        templateBuilder.invalidate(template.id);
 
         return new TemplateDTO(
                 template.id,
@@ -186,7 +192,7 @@ public class TemplateRepository {
             for (SentMail mail : template.mails) {
                 try {
                     TemplateMailContactInformationDTO contactInfo = createMailContactInfo(mail.contact);
-                    mailList.add(new SentMailDTO(contactInfo, mail.actualContent.trim()));
+                    mailList.add(new SentMailDTO(contactInfo, contentOf(mail), mail.status));
                 } catch (IllegalArgumentException e) {
                     LOG.error("Error creating contact info: " + e.getMessage(), e);
                 }
@@ -238,7 +244,7 @@ public class TemplateRepository {
         List<SentMailDTO> mailList = template.mails.stream()
                 .map(mail -> {
                     TemplateMailContactInformationDTO contactInfo = createMailContactInfo(mail.contact);
-                    return new SentMailDTO(contactInfo, mail.actualContent.trim());
+                    return new SentMailDTO(contactInfo, contentOf(mail), mail.status);
                 })
                 .collect(Collectors.toList());
 
@@ -342,7 +348,7 @@ public class TemplateRepository {
             for (SentMail mail : template.mails) {
                 try {
                     TemplateMailContactInformationDTO contactInfo = createMailContactInfo(mail.contact);
-                    mailList.add(new SentMailDTO(contactInfo, mail.actualContent.trim()));
+                    mailList.add(new SentMailDTO(contactInfo, contentOf(mail), mail.status));
                 } catch (IllegalArgumentException e) {
                     LOG.error("Error creating contact info: " + e.getMessage(), e);
                 }
@@ -358,4 +364,12 @@ public class TemplateRepository {
 
         return dtoList;
     }
+
+    /**
+     * Content of a sent mail; BCC-batched campaigns store it only once on the SentTemplate.
+     */
+    private String contentOf(SentMail mail) {
+        String content = mail.actualContent != null ? mail.actualContent : mail.usedTemplate.sharedContent;
+        return content != null ? content.trim() : "";
+    }
 }
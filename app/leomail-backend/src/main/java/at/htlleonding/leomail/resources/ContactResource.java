@@ -1,12 +1,17 @@
 package at.htlleonding.leomail.resources;
 
-import at.htlleonding.leomail.contracts.ContactSearchResult;
 import at.htlleonding.leomail.model.dto.contacts.*;
+import at.htlleonding.leomail.model.enums.ContactType;
+import at.htlleonding.leomail.model.enums.ExportFormat;
 import at.htlleonding.leomail.model.exceptions.ObjectContainsNullAttributesException;
 import at.htlleonding.leomail.model.exceptions.contacts.ContactExistsInKeycloakException;
 import at.htlleonding.leomail.model.exceptions.contacts.ContactInUseException;
 import at.htlleonding.leomail.model.exceptions.contacts.ContactKcUserException;
 import at.htlleonding.leomail.repositories.ContactRepository;
+import at.htlleonding.leomail.repositories.ContactSearchRepository;
+import at.htlleonding.leomail.services.ContactImportService;
+import at.htlleonding.leomail.services.ExportService;
+import at.htlleonding.leomail.services.PermissionService;
 import io.quarkus.security.Authenticated;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
@@ -16,7 +21,8 @@ import jakarta.ws.rs.core.Response;
 import org.jboss.logging.Logger;
 import org.eclipse.microprofile.jwt.JsonWebToken;
 
-import java.util.List;
+import java.io.InputStream;
+import java.util.Locale;
 
 @Path("/contacts")
 @Authenticated
@@ -29,6 +35,18 @@ public class ContactResource {
     @Inject
     ContactRepository contactRepository;
 
+    @Inject
+    ContactSearchRepository contactSearchRepository;
+
+    @Inject
+    ContactImportService contactImportService;
+
+    @Inject
+    ExportService exportService;
+
+    @Inject
+    PermissionService permissionService;
+
     @Inject
     JsonWebToken jwt;
 
@@ -70,6 +88,57 @@ public class ContactResource {
         }
     }
 
+    @POST
+    @Path("/import/natural")
+    @Consumes({"text/csv", MediaType.TEXT_PLAIN})
+    public Response importNaturalContacts(InputStream csv) {
+        try {
+            return Response.ok(contactImportService.importNaturalContacts(csv)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            LOGGER.error("Unexpected error while importing natural contacts", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("An unexpected error occurred.").build();
+        }
+    }
+
+    @POST
+    @Path("/import/company")
+    @Consumes({"text/csv", MediaType.TEXT_PLAIN})
+    public Response importCompanyContacts(InputStream csv) {
+        try {
+            return Response.ok(contactImportService.importCompanyContacts(csv)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            LOGGER.error("Unexpected error while importing company contacts", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("An unexpected error occurred.").build();
+        }
+    }
+
+    /**
+     * Exports the contacts of a project, or only those of the given type (natural, company), as CSV or NDJSON.
+     * Only a CSV export of one type can be imported again, as the import expects one contact type per file.
+     */
+    @GET
+    @Path("/export")
+    @Produces({"text/csv", "application/x-ndjson"})
+    public Response exportContacts(@QueryParam("pid") String projectId, @QueryParam("type") String type,
+                                   @QueryParam("format") String format) {
+        if (projectId == null || !permissionService.hasPermission(projectId, jwt.getSubject())) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            ContactType contactType = type == null || type.isBlank() ? null : ContactType.valueOf(type.trim().toUpperCase(Locale.ROOT));
+            ExportFormat exportFormat = ExportFormat.of(format);
+            return Response.ok(exportService.exportContacts(projectId, contactType, exportFormat), exportFormat.mediaType())
+                    .header("Content-Disposition", "attachment; filename=\"contacts." + exportFormat.fileExtension() + "\"")
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
     @GET
     @Path("/single")
     public Response getContact(@QueryParam("id") String id) {
@@ -86,10 +155,14 @@ public class ContactResource {
 
     @GET
     @Path("/search/natural")
-    public Response searchNaturalContacts(@QueryParam("query") String searchTerm) {
+    public Response searchNaturalContacts(@QueryParam("query") String searchTerm,
+                                          @QueryParam("limit") Integer limit,
+                                          @QueryParam("cursor") String cursor) {
         try {
-            List<NaturalContactSearchDTO> results = contactRepository.searchNaturalContacts(searchTerm, jwt.getClaim("sub"));
-            return Response.ok(results).build();
+            ContactSearchPage<NaturalContactSearchDTO> page = contactSearchRepository.searchNaturalContacts(searchTerm, jwt.getClaim("sub"), limit, cursor);
+            return searchResponse(page);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             LOGGER.error("Unexpected error while searching natural contacts", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("An unexpected error occurred.").build();
@@ -98,10 +171,14 @@ public class ContactResource {
 
     @GET
     @Path("/search/company")
-    public Response searchCompanyContacts(@QueryParam("query") String searchTerm) {
+    public Response searchCompanyContacts(@QueryParam("query") String searchTerm,
+                                          @QueryParam("limit") Integer limit,
+                                          @QueryParam("cursor") String cursor) {
         try {
-            List<CompanyContactSearchDTO> results = contactRepository.searchCompanyContacts(searchTerm, jwt.getClaim("sub"));
-            return Response.ok(results).build();
+            ContactSearchPage<CompanyContactSearchDTO> page = contactSearchRepository.searchCompanyContacts(searchTerm, jwt.getClaim("sub"), limit, cursor);
+            return searchResponse(page);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             LOGGER.error("Unexpected error while searching company contacts", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("An unexpected error occurred.").build();
@@ -110,16 +187,30 @@ public class ContactResource {
 
     @GET
     @Path("/search/all")
-    public Response searchAllContacts(@QueryParam("query") String searchTerm) {
+    public Response searchAllContacts(@QueryParam("query") String searchTerm,
+                                      @QueryParam("limit") Integer limit,
+                                      @QueryParam("cursor") String cursor) {
         try {
-            List<ContactSearchResult> results = contactRepository.searchAllContacts(searchTerm, jwt.getClaim("sub"));
-            return Response.ok(results).build();
+            return searchResponse(contactSearchRepository.searchAllContacts(searchTerm, jwt.getClaim("sub"), limit, cursor));
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             LOGGER.error("Unexpected error while searching all contacts", e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("An unexpected error occurred.").build();
         }
     }
 
+    /**
+     * Returns the results of a page; the cursor of the next page, if any, is sent in the X-Next-Cursor header.
+     */
+    private Response searchResponse(ContactSearchPage<?> page) {
+        Response.ResponseBuilder response = Response.ok(page.results());
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", page.nextCursor());
+        }
+        return response.build();
+    }
+
     @POST
     @Path("/update/natural")
     @Transactional
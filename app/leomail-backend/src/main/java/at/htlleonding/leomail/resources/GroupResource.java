@@ -3,7 +3,10 @@ package at.htlleonding.leomail.resources;
 import at.htlleonding.leomail.contracts.ContactSearchResult;
 import at.htlleonding.leomail.model.dto.groups.GroupDetailDTO;
 import at.htlleonding.leomail.model.dto.groups.GroupOverviewDTO;
+import at.htlleonding.leomail.model.enums.ExportFormat;
 import at.htlleonding.leomail.repositories.GroupRepository;
+import at.htlleonding.leomail.services.ExportService;
+import at.htlleonding.leomail.services.PermissionService;
 import io.quarkus.security.Authenticated;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
@@ -25,6 +28,12 @@ public class GroupResource {
     @Inject
     GroupRepository groupRepository;
 
+    @Inject
+    PermissionService permissionService;
+
+    @Inject
+    ExportService exportService;
+
     @GET
     @Path("/get/personal")
     public Response getPersonalGroups(@QueryParam("pid") String projectId) {
@@ -69,6 +78,7 @@ public class GroupResource {
             GroupDetailDTO dto) {
         try {
             String userId = jwt.getSubject();
+            groupRepository.importKeycloakMembers(dto.members());
             groupRepository.createGroup(projectId, userId, dto.description(), dto.name(), dto.members());
             return Response.status(Response.Status.CREATED).build();
         } catch (IllegalArgumentException e) {
@@ -85,6 +95,7 @@ public class GroupResource {
             GroupDetailDTO dto) {
         try {
             String userId = jwt.getSubject();
+            groupRepository.importKeycloakMembers(dto.members());
             groupRepository.updateGroup(projectId, userId, dto.description(), dto.id(), dto.name(), dto.members());
             return Response.ok().build();
         } catch (IllegalArgumentException e) {
@@ -117,4 +128,45 @@ public class GroupResource {
             return Response.status(Response.Status.CONFLICT).entity("E-Group-01").build();
         }
     }
+
+    /**
+     * Exports the groups of a project as CSV or NDJSON.
+     */
+    @GET
+    @Path("/export")
+    @Produces({"text/csv", "application/x-ndjson"})
+    public Response exportGroups(@QueryParam("pid") String projectId, @QueryParam("format") String format) {
+        if (!permissionService.hasPermission(projectId, jwt.getSubject())) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            ExportFormat exportFormat = ExportFormat.of(format);
+            return Response.ok(exportService.exportGroups(projectId, exportFormat), exportFormat.mediaType())
+                    .header("Content-Disposition", "attachment; filename=\"groups." + exportFormat.fileExtension() + "\"")
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
+    /**
+     * Exports the members of one group, or of all groups of the project if no group is given, as CSV or NDJSON.
+     */
+    @GET
+    @Path("/members/export")
+    @Produces({"text/csv", "application/x-ndjson"})
+    public Response exportGroupMembers(@QueryParam("pid") String projectId, @QueryParam("gid") String groupId,
+                                       @QueryParam("format") String format) {
+        if (!permissionService.hasPermission(projectId, jwt.getSubject())) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            ExportFormat exportFormat = ExportFormat.of(format);
+            return Response.ok(exportService.exportGroupMembers(projectId, groupId, exportFormat), exportFormat.mediaType())
+                    .header("Content-Disposition", "attachment; filename=\"group-members." + exportFormat.fileExtension() + "\"")
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
 }
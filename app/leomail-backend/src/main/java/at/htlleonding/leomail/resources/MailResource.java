@@ -1,30 +1,71 @@
 package at.htlleonding.leomail.resources;
 
+import at.htlleonding.leomail.model.dto.template.DeadLetterDTO;
+import at.htlleonding.leomail.repositories.MailRepository;
 import at.htlleonding.leomail.services.MailProcessingService;
+import at.htlleonding.leomail.services.PermissionService;
 import io.quarkus.security.Authenticated;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.jwt.JsonWebToken;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
 
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
 @Path("mail")
 public class MailResource {
 
     @Inject
     MailProcessingService mailProcessingService;
 
+    @Inject
+    MailRepository mailRepository;
+
+    @Inject
+    PermissionService permissionService;
+
+    @Inject
+    JsonWebToken jwt;
+
     @POST
     @Path("sendByTemplateWithAttachments")
-    @Transactional
     @Authenticated
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.APPLICATION_JSON)
     public Response sendMailByTemplateWithAttachments(MultipartFormDataInput input) {
         try {
             mailProcessingService.sendMailByTemplateWithAttachments(input);
-            return Response.ok("Emails mit Anhängen erfolgreich gesendet").build();
+            return Response.ok("Emails mit Anhängen erfolgreich zum Versand eingereiht").build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Fehler beim Senden der E-Mails: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Job-based variant of {@link #sendMailByTemplateWithAttachments}: returns 202 with the job ID as soon as
+     * the recipients are resolved and the mails are in the outbox. Progress is available under {@code mail/jobs/{id}}.
+     */
+    @POST
+    @Path("jobs")
+    @Authenticated
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitSendJob(MultipartFormDataInput input) {
+        try {
+            Long jobId = mailProcessingService.sendMailByTemplateWithAttachments(input);
+            return Response.accepted(Map.of("jobId", jobId))
+                    .location(URI.create("mail/jobs/" + jobId))
+                    .build();
         } catch (IllegalArgumentException e) {
             return Response.status(Response.Status.BAD_REQUEST)
                     .entity(e.getMessage())
@@ -36,6 +77,14 @@ public class MailResource {
         }
     }
 
+    @GET
+    @Path("jobs/{id}")
+    @Authenticated
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSendJobStatus(@PathParam("id") Long id) {
+        return mailProcessingService.getJobStatus(id);
+    }
+
     @GET
     @Path("attachments/{id}")
     @Authenticated
@@ -43,5 +92,41 @@ public class MailResource {
     public Response getAttachment(@PathParam("id") Long id) {
         return mailProcessingService.getAttachment(id);
     }
-}
 
+    /**
+     * Lists mails of a project that failed permanently and will not be retried automatically.
+     */
+    @GET
+    @Path("deadLetters")
+    @Authenticated
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDeadLetters(@QueryParam("pid") String pid) {
+        if (!permissionService.hasPermission(pid, jwt.getClaim("sub"))) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        List<DeadLetterDTO> deadLetters = mailRepository.getDeadLetters(pid);
+        return Response.ok(deadLetters).build();
+    }
+
+    /**
+     * Puts the given failed mails back into the outbox.
+     */
+    @POST
+    @Path("deadLetters/retry")
+    @Authenticated
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response retryDeadLetters(List<Long> mailIds, @QueryParam("pid") String pid) {
+        if (!permissionService.hasPermission(pid, jwt.getClaim("sub"))) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            int requeued = mailRepository.retryDeadLetters(pid, mailIds);
+            return Response.ok(Map.of("requeued", requeued)).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(e.getMessage())
+                    .build();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package at.htlleonding.leomail.resources;
 
 import at.htlleonding.leomail.services.ImportStatusService;
+import at.htlleonding.leomail.services.smtp.SenderRateLimiter;
+import io.quarkus.security.Authenticated;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
@@ -18,6 +20,9 @@ public class StatusResource {
     @Inject
     ImportStatusService importStatusService;
 
+    @Inject
+    SenderRateLimiter senderRateLimiter;
+
     /**
      * Gibt den aktuellen Importstatus zurück.
      *
@@ -30,4 +35,17 @@ public class StatusResource {
         boolean isImporting = importStatusService.isImporting();
         return Response.ok(Map.of("importing", isImporting)).build();
     }
+
+    /**
+     * Gibt die aktuelle Senderate (Mails pro Minute) je Absenderkonto zurück.
+     *
+     * @return JSON-Objekt mit den Senderaten
+     */
+    @GET
+    @Path("/send-rates")
+    @Authenticated
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSendRates() {
+        return Response.ok(senderRateLimiter.currentRates()).build();
+    }
 }
@@ -0,0 +1,292 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.contracts.ContactSearchResult;
+import at.htlleonding.leomail.model.ContactChangedEvent;
+import at.htlleonding.leomail.model.dto.contacts.CompanyContactSearchDTO;
+import at.htlleonding.leomail.model.dto.contacts.ContactImportErrorDTO;
+import at.htlleonding.leomail.model.dto.contacts.ContactImportResultDTO;
+import at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.Session;
+import org.jboss.logging.Logger;
+import org.postgresql.PGConnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Imports contacts from a CSV upload. The upload is read record by record and validated on the fly;
+ * valid rows are loaded in batches with COPY into a temporary staging table, from where they are
+ * inserted set-based, skipping mail addresses that already exist. Every batch runs in its own
+ * transaction, so a large file neither holds one long transaction nor fails as a whole. A malformed
+ * record ends the import; it is reported like an invalid row and the rows before it are still saved.
+ */
+@ApplicationScoped
+public class ContactImportService {
+
+    private static final Logger LOGGER = Logger.getLogger(ContactImportService.class);
+    private static final int MAX_LENGTH = 255;
+
+    private static final ImportType NATURAL = new ImportType("naturalcontact",
+            List.of("firstName", "lastName", "mailAddress", "prefixTitle", "suffixTitle", "company", "positionAtCompany", "gender"),
+            List.of("firstName", "lastName", "mailAddress"),
+            row -> new NaturalContactSearchDTO(row.id(), row.value(0), row.value(1), row.value(2)));
+
+    private static final ImportType COMPANY = new ImportType("companycontact",
+            List.of("companyName", "mailAddress"),
+            List.of("companyName", "mailAddress"),
+            row -> new CompanyContactSearchDTO(row.id(), row.value(0), row.value(1)));
+
+    @ConfigProperty(name = "leomail.contacts.import.batch-size", defaultValue = "5000")
+    int batchSize;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    Event<ContactChangedEvent> contactChanged;
+
+    /**
+     * Columns of a contact type; the CSV header names are the entity field names, in any order and case.
+     */
+    private record ImportType(String table, List<String> columns, List<String> required,
+                              Function<ImportRow, ContactSearchResult> toSearchResult) {
+
+        int mailColumn() {
+            return columns.indexOf("mailAddress");
+        }
+    }
+
+    private record ImportRow(long line, String id, String[] values) {
+
+        String value(int column) {
+            return values[column];
+        }
+    }
+
+    public ContactImportResultDTO importNaturalContacts(InputStream csv) throws IOException {
+        return importContacts(csv, NATURAL);
+    }
+
+    public ContactImportResultDTO importCompanyContacts(InputStream csv) throws IOException {
+        return importContacts(csv, COMPANY);
+    }
+
+    private ContactImportResultDTO importContacts(InputStream csv, ImportType type) throws IOException {
+        long start = System.nanoTime();
+        List<ContactImportErrorDTO> errors = new ArrayList<>();
+        Map<String, Long> seenMailAddresses = new HashMap<>();
+        List<ImportRow> batch = new ArrayList<>(batchSize);
+        long rows = 0;
+        long imported = 0;
+
+        try (CsvReader reader = new CsvReader(csv)) {
+            int[] positions = mapHeader(reader.readHeader(), type);
+            while (true) {
+                List<String> record;
+                try {
+                    record = reader.readRecord();
+                } catch (IllegalArgumentException e) {
+                    // the rest of the file cannot be split into records reliably, so reading stops here
+                    rows++;
+                    errors.add(new ContactImportErrorDTO(reader.recordLine(), null, e.getMessage()));
+                    break;
+                }
+                if (record == null) {
+                    break;
+                }
+                rows++;
+                long line = reader.recordLine();
+                String[] values = new String[type.columns().size()];
+                String error = validate(record, positions, type, values);
+                String mailAddress = values[type.mailColumn()];
+                if (error == null && mailAddress != null) {
+                    Long firstLine = seenMailAddresses.putIfAbsent(mailAddress, line);
+                    if (firstLine != null) {
+                        error = "Duplicate mail address, already in line " + firstLine;
+                    }
+                }
+                if (error != null) {
+                    errors.add(new ContactImportErrorDTO(line, mailAddress, error));
+                    continue;
+                }
+                batch.add(new ImportRow(line, UUID.randomUUID().toString(), values));
+                if (batch.size() == batchSize) {
+                    imported += importBatch(batch, type, errors);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            imported += importBatch(batch, type, errors);
+        }
+
+        errors.sort(Comparator.comparingLong(ContactImportErrorDTO::line));
+        LOGGER.infof("Imported %d of %d %s rows in %d ms.", imported, rows, type.table(), (System.nanoTime() - start) / 1_000_000);
+        return new ContactImportResultDTO(rows, imported, errors);
+    }
+
+    /**
+     * @return Position of every column of the type in the CSV records, -1 for optional columns not present
+     */
+    private int[] mapHeader(List<String> header, ImportType type) {
+        if (header == null) {
+            throw new IllegalArgumentException("The CSV file is empty");
+        }
+        int[] positions = new int[type.columns().size()];
+        Arrays.fill(positions, -1);
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).trim();
+            for (int column = 0; column < positions.length; column++) {
+                if (type.columns().get(column).equalsIgnoreCase(name)) {
+                    positions[column] = i;
+                }
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        for (String required : type.required()) {
+            if (positions[type.columns().indexOf(required)] < 0) {
+                missing.add(required);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Missing CSV columns: " + String.join(", ", missing));
+        }
+        return positions;
+    }
+
+    /**
+     * Copies the trimmed fields of the record into {@code values}, empty fields as null.
+     *
+     * @return Error message, or null if the row is valid
+     */
+    private String validate(List<String> record, int[] positions, ImportType type, String[] values) {
+        for (int column = 0; column < positions.length; column++) {
+            int position = positions[column];
+            String value = position >= 0 && position < record.size() ? record.get(position).trim() : "";
+            values[column] = value.isEmpty() ? null : value;
+        }
+        int expected = Arrays.stream(positions).max().orElse(0) + 1;
+        if (record.size() < expected) {
+            return "Expected at least " + expected + " fields but found " + record.size();
+        }
+        for (String required : type.required()) {
+            if (values[type.columns().indexOf(required)] == null) {
+                return required + " is missing";
+            }
+        }
+        for (int column = 0; column < values.length; column++) {
+            if (values[column] != null && values[column].length() > MAX_LENGTH) {
+                return type.columns().get(column) + " is longer than " + MAX_LENGTH + " characters";
+            }
+        }
+        if (!isMailAddress(values[type.mailColumn()])) {
+            return "Invalid mail address";
+        }
+        int gender = type.columns().indexOf("gender");
+        if (gender >= 0 && values[gender] != null) {
+            String value = values[gender].toUpperCase(Locale.ROOT);
+            if (!value.equals("M") && !value.equals("W")) {
+                return "gender must be M or W";
+            }
+            values[gender] = value;
+        }
+        return null;
+    }
+
+    private static boolean isMailAddress(String value) {
+        int at = value.indexOf('@');
+        return at > 0 && at == value.lastIndexOf('@') && at < value.length() - 1 && value.chars().noneMatch(Character::isWhitespace);
+    }
+
+    /**
+     * Loads one batch in its own transaction. Rows whose mail address is already stored are reported
+     * as errors; if the batch cannot be saved at all, every row of it is.
+     *
+     * @return Number of inserted contacts
+     */
+    private int importBatch(List<ImportRow> batch, ImportType type, List<ContactImportErrorDTO> errors) {
+        Map<String, ImportRow> rowsById = new HashMap<>();
+        for (ImportRow row : batch) {
+            rowsById.put(row.id(), row);
+        }
+        List<ContactImportErrorDTO> existingErrors = new ArrayList<>();
+        try {
+            int inserted = QuarkusTransaction.requiringNew().call(() -> {
+                existingErrors.clear();
+                String columns = String.join(", ", type.columns()).toLowerCase(Locale.ROOT);
+                em.createNativeQuery("create temporary table contact_import (line bigint, id varchar(36), " +
+                        String.join(" varchar(255), ", type.columns()).toLowerCase(Locale.ROOT) + " varchar(255)) on commit drop")
+                        .executeUpdate();
+                copyRows(batch, "copy contact_import (line, id, " + columns + ") from stdin with (format csv)");
+
+                @SuppressWarnings("unchecked")
+                List<Object> existing = em.createNativeQuery("select s.id from contact_import s " +
+                                "join " + type.table() + " c on c.mailaddress = s.mailaddress")
+                        .getResultList();
+                for (Object id : existing) {
+                    ImportRow row = rowsById.get((String) id);
+                    existingErrors.add(new ContactImportErrorDTO(row.line(), row.value(type.mailColumn()), "Mail address already exists"));
+                }
+
+                @SuppressWarnings("unchecked")
+                List<Object> insertedIds = em.createNativeQuery(
+                        "with fresh as (select s.* from contact_import s " +
+                                "where not exists (select 1 from " + type.table() + " c where c.mailaddress = s.mailaddress)), " +
+                                "base as (insert into contact(id, kcuser, created) select f.id, false, now() from fresh f returning id) " +
+                                "insert into " + type.table() + "(id, " + columns + ") " +
+                                "select f.id, " + prefixed("f.", columns) + " from fresh f join base b on b.id = f.id " +
+                                "returning id")
+                        .getResultList();
+                for (Object id : insertedIds) {
+                    contactChanged.fire(ContactChangedEvent.saved(type.toSearchResult().apply(rowsById.get((String) id))));
+                }
+                return insertedIds.size();
+            });
+            errors.addAll(existingErrors);
+            return inserted;
+        } catch (Exception e) {
+            LOGGER.errorf(e, "Could not import %d %s rows.", batch.size(), type.table());
+            for (ImportRow row : batch) {
+                errors.add(new ContactImportErrorDTO(row.line(), row.value(type.mailColumn()), "Could not be saved"));
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Streams the rows into the staging table through the COPY protocol of the current connection.
+     */
+    private void copyRows(List<ImportRow> batch, String copy) {
+        StringBuilder data = new StringBuilder(batch.size() * 128);
+        for (ImportRow row : batch) {
+            data.append(row.line()).append(',').append(row.id());
+            for (String value : row.values()) {
+                data.append(',');
+                if (value != null) {
+                    data.append('"').append(value.replace("\"", "\"\"")).append('"');
+                }
+            }
+            data.append('\n');
+        }
+        em.unwrap(Session.class).doWork(connection -> {
+            try {
+                connection.unwrap(PGConnection.class).getCopyAPI().copyIn(copy, new StringReader(data.toString()));
+            } catch (IOException e) {
+                throw new IllegalStateException("COPY into the staging table failed", e);
+            }
+        });
+    }
+
+    private static String prefixed(String prefix, String columns) {
+        return prefix + columns.replace(", ", ", " + prefix);
+    }
+}
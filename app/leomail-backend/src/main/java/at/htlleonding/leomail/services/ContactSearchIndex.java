@@ -0,0 +1,230 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.contracts.ContactSearchResult;
+import at.htlleonding.leomail.model.ContactChangedEvent;
+import at.htlleonding.leomail.model.dto.contacts.CompanyContactSearchDTO;
+import at.htlleonding.leomail.model.dto.contacts.ContactSearchPage;
+import at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+
+/**
+ * Optional in-memory autocomplete index over first name, last name, company name and mail address.
+ * Every normalized token is stored as {@code token + '\0' + contactId} in a sorted set, so a prefix query
+ * is a range scan that never touches the database. The index is built at startup and kept current
+ * through {@link ContactChangedEvent}s. Results are ordered by the first matching token, then by ID;
+ * a contact is only returned at its first matching token, so pages never repeat a contact.
+ */
+@ApplicationScoped
+public class ContactSearchIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(ContactSearchIndex.class);
+    private static final char SEPARATOR = '\0';
+    private static final Pattern TOKEN_DELIMITERS = Pattern.compile("[\\s.@_\\-]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    @ConfigProperty(name = "leomail.contact.search.in-memory", defaultValue = "false")
+    boolean enabled;
+
+    @Inject
+    EntityManager em;
+
+    private final NavigableSet<String> tokens = new ConcurrentSkipListSet<>();
+    private final Map<String, IndexedContact> contacts = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+
+    private record IndexedContact(ContactSearchResult contact, String[] tokens) {
+
+        /**
+         * Smallest token of the contact that starts with the prefix, or null.
+         */
+        String firstMatch(String prefix) {
+            for (String token : tokens) {
+                if (token.startsWith(prefix)) {
+                    return token;
+                }
+            }
+            return null;
+        }
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        QuarkusTransaction.requiringNew().run(() -> {
+            em.createQuery("SELECT NEW at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO(c.id, c.firstName, c.lastName, c.mailAddress) " +
+                            "FROM NaturalContact c", NaturalContactSearchDTO.class)
+                    .getResultStream()
+                    .forEach(this::put);
+            em.createQuery("SELECT NEW at.htlleonding.leomail.model.dto.contacts.CompanyContactSearchDTO(c.id, c.companyName, c.mailAddress) " +
+                            "FROM CompanyContact c", CompanyContactSearchDTO.class)
+                    .getResultStream()
+                    .forEach(this::put);
+        });
+        ready = true;
+        LOGGER.infof("Contact search index built: %d contacts, %d tokens in %d ms.",
+                contacts.size(), tokens.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Applies a contact change once its transaction has committed.
+     */
+    void onContactChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) ContactChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (event.contact() == null) {
+            remove(event.contactId());
+        } else {
+            put(event.contact());
+        }
+    }
+
+    /**
+     * @return true if the index is enabled and has been built
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Finds contacts of the given type whose tokens start with the words of the search term.
+     *
+     * @param searchTerm Search term
+     * @param own        Own user ID to exclude
+     * @param limit      Maximum number of results
+     * @param cursor     Cursor of the previous page, null for the first page
+     * @param type       Contact type to return
+     * @return Page of found contacts
+     */
+    public <T extends ContactSearchResult> ContactSearchPage<T> search(String searchTerm, String own, int limit, String cursor, Class<T> type) {
+        List<String> words = tokenize(searchTerm == null ? "" : searchTerm);
+        // the longest word narrows the scanned range the most, the others are checked per contact
+        String primary = words.stream().max(Comparator.comparingInt(String::length)).orElse("");
+        String from = cursor == null || cursor.isBlank() ? primary : decodeCursor(cursor);
+
+        List<T> results = new ArrayList<>(limit);
+        String lastKey = null;
+        boolean more = false;
+        for (String key : tokens.tailSet(from, cursor == null || cursor.isBlank())) {
+            if (!key.startsWith(primary)) {
+                break;
+            }
+            int separator = key.indexOf(SEPARATOR);
+            String token = key.substring(0, separator);
+            IndexedContact indexed = contacts.get(key.substring(separator + 1));
+            if (indexed == null || !type.isInstance(indexed.contact()) || indexed.contact().getId().equals(own)
+                    || !token.equals(indexed.firstMatch(primary)) || !matchesAll(indexed, words)) {
+                continue;
+            }
+            if (results.size() == limit) {
+                more = true;
+                break;
+            }
+            results.add(type.cast(indexed.contact()));
+            lastKey = key;
+        }
+        return new ContactSearchPage<>(results, more ? encodeCursor(lastKey) : null);
+    }
+
+    private boolean matchesAll(IndexedContact indexed, List<String> words) {
+        for (String word : words) {
+            if (indexed.firstMatch(word) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void put(ContactSearchResult contact) {
+        Set<String> contactTokens = new TreeSet<>();
+        if (contact instanceof NaturalContactSearchDTO natural) {
+            addTokens(contactTokens, natural.firstName());
+            addTokens(contactTokens, natural.lastName());
+        } else if (contact instanceof CompanyContactSearchDTO company) {
+            addTokens(contactTokens, company.companyName());
+        }
+        addTokens(contactTokens, contact.getMailAddress());
+
+        IndexedContact indexed = new IndexedContact(contact, contactTokens.toArray(String[]::new));
+        IndexedContact previous = contacts.put(contact.getId(), indexed);
+        if (previous != null) {
+            for (String token : previous.tokens()) {
+                if (!contactTokens.contains(token)) {
+                    tokens.remove(token + SEPARATOR + contact.getId());
+                }
+            }
+        }
+        for (String token : indexed.tokens()) {
+            tokens.add(token + SEPARATOR + contact.getId());
+        }
+    }
+
+    private void remove(String contactId) {
+        IndexedContact previous = contacts.remove(contactId);
+        if (previous != null) {
+            for (String token : previous.tokens()) {
+                tokens.remove(token + SEPARATOR + contactId);
+            }
+        }
+    }
+
+    private static void addTokens(Set<String> target, String value) {
+        if (value == null) {
+            return;
+        }
+        String normalized = normalize(value);
+        if (!normalized.isEmpty()) {
+            // the whole value as well, so that e.g. "lana.sek" matches the mail address
+            target.add(normalized);
+        }
+        target.addAll(tokenize(value));
+    }
+
+    private static List<String> tokenize(String value) {
+        List<String> words = new ArrayList<>();
+        for (String word : TOKEN_DELIMITERS.split(normalize(value))) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static String normalize(String value) {
+        String decomposed = Normalizer.normalize(value.trim().toLowerCase(Locale.ROOT), Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").replace(String.valueOf(SEPARATOR), "");
+    }
+
+    private static String encodeCursor(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (key.indexOf(SEPARATOR) < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return key;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
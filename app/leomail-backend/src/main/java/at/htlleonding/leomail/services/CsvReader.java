@@ -0,0 +1,140 @@
+package at.htlleonding.leomail.services;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV records (RFC 4180) one at a time, so that an upload never has to be held in memory.
+ * The separator is taken from the header line: ';' as written by Excel with German locale, otherwise ','.
+ */
+final class CsvReader implements Closeable {
+
+    // the header line is scanned for the separator before it is parsed
+    private static final int HEADER_LOOKAHEAD = 8192;
+
+    private final BufferedReader reader;
+    private char separator = ',';
+    private long line = 1;
+    private long recordLine;
+    private int pushedBack = -1;
+
+    CsvReader(InputStream input) {
+        this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the header record and detects the separator from it.
+     *
+     * @return Column names, or null for an empty input
+     */
+    List<String> readHeader() throws IOException {
+        reader.mark(HEADER_LOOKAHEAD);
+        int semicolons = 0;
+        int commas = 0;
+        for (int i = 0, c = reader.read(); i < HEADER_LOOKAHEAD - 1 && c != -1 && c != '\n'; i++, c = reader.read()) {
+            if (c == ';') {
+                semicolons++;
+            } else if (c == ',') {
+                commas++;
+            }
+        }
+        reader.reset();
+        separator = semicolons > commas ? ';' : ',';
+
+        int first = reader.read();
+        if (first != '\uFEFF') {
+            pushedBack = first;
+        }
+        return readRecord();
+    }
+
+    /**
+     * @return Fields of the next record, or null at the end of the input
+     */
+    List<String> readRecord() throws IOException {
+        int c = read();
+        // skip empty lines between records
+        while (c == '\r' || c == '\n') {
+            if (c == '\n') {
+                line++;
+            }
+            c = read();
+        }
+        if (c == -1) {
+            return null;
+        }
+        recordLine = line;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("Unterminated quoted field starting in line " + recordLine);
+                }
+                if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        c = next;
+                        continue;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.isEmpty()) {
+                quoted = true;
+            } else if (c == separator) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n') {
+                        pushedBack = next;
+                    }
+                }
+                if (c != -1) {
+                    line++;
+                }
+                fields.add(field.toString());
+                return fields;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * @return Line in the input at which the last record started, also if it turned out to be malformed
+     */
+    long recordLine() {
+        return recordLine;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        return reader.read();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
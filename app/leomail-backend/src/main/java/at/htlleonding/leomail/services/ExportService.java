@@ -0,0 +1,194 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.model.dto.contacts.ContactExportDTO;
+import at.htlleonding.leomail.model.dto.groups.GroupExportDTO;
+import at.htlleonding.leomail.model.dto.groups.GroupMemberExportDTO;
+import at.htlleonding.leomail.model.enums.ContactType;
+import at.htlleonding.leomail.model.enums.ExportFormat;
+import at.htlleonding.leomail.model.enums.Gender;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.jpa.HibernateHints;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.RecordComponent;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Exports contacts, groups and group members as CSV or NDJSON. Rows are read with projection queries
+ * through a forward-only cursor (JDBC fetch size) and written to the response as they arrive, so the
+ * memory use does not depend on the number of exported rows. CSV columns and JSON fields are the
+ * components of the export DTOs.
+ */
+@ApplicationScoped
+public class ExportService {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportService.class);
+
+    @ConfigProperty(name = "leomail.export.fetch-size", defaultValue = "1000")
+    int fetchSize;
+
+    @ConfigProperty(name = "leomail.export.timeout", defaultValue = "PT1H")
+    Duration timeout;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    /**
+     * Exports the contacts visible in a project: its members and creator and the members of its groups.
+     *
+     * @param projectId Project whose contacts are exported
+     * @param type      Contact type to export, null for all contacts
+     * @param format    Output format
+     */
+    public StreamingOutput exportContacts(String projectId, ContactType type, ExportFormat format) {
+        String groupMembers = "c.id IN (SELECT m.id FROM Group g JOIN g.members m WHERE g.project.id = :projectId)";
+        List<Supplier<Stream<ContactExportDTO>>> sources = new ArrayList<>();
+        if (type == null || type == ContactType.NATURAL) {
+            sources.add(() -> stream(em.createQuery(
+                    "SELECT c.id, c.mailAddress, c.firstName, c.lastName, c.prefixTitle, c.suffixTitle, " +
+                            "c.company, c.positionAtCompany, c.gender, c.kcUser FROM NaturalContact c " +
+                            "WHERE c.id IN (SELECT m.id FROM Project p JOIN p.members m WHERE p.id = :projectId) " +
+                            "OR c.id IN (SELECT p.createdBy.id FROM Project p WHERE p.id = :projectId) " +
+                            "OR " + groupMembers + " ORDER BY c.mailAddress",
+                    Object[].class)
+                    .setParameter("projectId", projectId))
+                    .map(row -> new ContactExportDTO((String) row[0], ContactType.NATURAL, (String) row[1],
+                            (String) row[2], (String) row[3], (String) row[4], (String) row[5], (String) row[6],
+                            (String) row[7], (Gender) row[8], null, (Boolean) row[9])));
+        }
+        if (type == null || type == ContactType.COMPANY) {
+            sources.add(() -> stream(em.createQuery(
+                    "SELECT c.id, c.mailAddress, c.companyName, c.kcUser FROM CompanyContact c " +
+                            "WHERE " + groupMembers + " ORDER BY c.mailAddress",
+                    Object[].class)
+                    .setParameter("projectId", projectId))
+                    .map(row -> new ContactExportDTO((String) row[0], ContactType.COMPANY, (String) row[1],
+                            null, null, null, null, null, null, null, (String) row[2], (Boolean) row[3])));
+        }
+        return export(ContactExportDTO.class, format, sources);
+    }
+
+    /**
+     * @param projectId Project whose groups are exported
+     * @param format    Output format
+     */
+    public StreamingOutput exportGroups(String projectId, ExportFormat format) {
+        return export(GroupExportDTO.class, format, List.of(() -> stream(em.createQuery(
+                        "SELECT NEW at.htlleonding.leomail.model.dto.groups.GroupExportDTO(g.id, g.name, g.description, c.mailAddress, SIZE(g.members)) " +
+                                "FROM Group g LEFT JOIN g.createdBy c WHERE g.project.id = :projectId ORDER BY g.name",
+                        GroupExportDTO.class)
+                .setParameter("projectId", projectId))));
+    }
+
+    /**
+     * @param projectId Project whose group members are exported
+     * @param groupId   Group to export, null for all groups of the project
+     * @param format    Output format
+     */
+    public StreamingOutput exportGroupMembers(String projectId, String groupId, ExportFormat format) {
+        String groupFilter = groupId == null ? "" : "AND g.id = :groupId ";
+        Function<TypedQuery<Object[]>, TypedQuery<Object[]>> parameters = query -> {
+            query.setParameter("projectId", projectId);
+            if (groupId != null) {
+                query.setParameter("groupId", groupId);
+            }
+            return query;
+        };
+        return export(GroupMemberExportDTO.class, format, List.of(
+                () -> stream(parameters.apply(em.createQuery(
+                        "SELECT g.id, g.name, n.id, n.mailAddress, n.firstName, n.lastName " +
+                                "FROM Group g JOIN TREAT(g.members AS NaturalContact) n " +
+                                "WHERE g.project.id = :projectId " + groupFilter + "ORDER BY g.name, g.id, n.mailAddress",
+                        Object[].class)))
+                        .map(row -> new GroupMemberExportDTO((String) row[0], (String) row[1], (String) row[2],
+                                ContactType.NATURAL, (String) row[3], (String) row[4], (String) row[5], null)),
+                () -> stream(parameters.apply(em.createQuery(
+                        "SELECT g.id, g.name, c.id, c.mailAddress, c.companyName " +
+                                "FROM Group g JOIN TREAT(g.members AS CompanyContact) c " +
+                                "WHERE g.project.id = :projectId " + groupFilter + "ORDER BY g.name, g.id, c.mailAddress",
+                        Object[].class)))
+                        .map(row -> new GroupMemberExportDTO((String) row[0], (String) row[1], (String) row[2],
+                                ContactType.COMPANY, (String) row[3], null, null, (String) row[4]))));
+    }
+
+    private <T> Stream<T> stream(TypedQuery<T> query) {
+        return query.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+    }
+
+    /**
+     * Writes the rows of all sources one after another. The cursors need an open transaction, which is
+     * started when the response body is written, i.e. after the resource method has returned.
+     */
+    private <T extends Record> StreamingOutput export(Class<T> type, ExportFormat format, List<Supplier<Stream<T>>> sources) {
+        RecordComponent[] components = type.getRecordComponents();
+        return output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            CsvWriter csv = new CsvWriter(writer);
+            long start = System.nanoTime();
+            long[] rows = {0};
+            try {
+                if (format == ExportFormat.CSV) {
+                    csv.writeRecord(Arrays.stream(components).map(RecordComponent::getName).toList());
+                }
+                QuarkusTransaction.requiringNew().timeout((int) timeout.toSeconds()).run(() -> {
+                    for (Supplier<Stream<T>> source : sources) {
+                        try (Stream<T> stream = source.get()) {
+                            stream.forEach(row -> {
+                                writeRow(row, components, format, writer, csv);
+                                rows[0]++;
+                            });
+                        }
+                    }
+                });
+                writer.flush();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            LOGGER.infof("Exported %d %s rows as %s in %d ms.", rows[0], type.getSimpleName(), format,
+                    (System.nanoTime() - start) / 1_000_000);
+        };
+    }
+
+    private void writeRow(Record row, RecordComponent[] components, ExportFormat format, Writer writer, CsvWriter csv) {
+        try {
+            if (format == ExportFormat.NDJSON) {
+                writer.write(objectMapper.writeValueAsString(row));
+                writer.write('\n');
+                return;
+            }
+            List<Object> values = new ArrayList<>(components.length);
+            for (RecordComponent component : components) {
+                values.add(component.getAccessor().invoke(row));
+            }
+            csv.writeRecord(values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not read export row " + row, e);
+        }
+    }
+}
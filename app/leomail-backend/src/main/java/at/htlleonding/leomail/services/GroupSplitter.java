@@ -1,72 +1,113 @@
 package at.htlleonding.leomail.services;
 
 import at.htlleonding.leomail.entities.Contact;
-import at.htlleonding.leomail.entities.Group;
-import at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO;
+import at.htlleonding.leomail.entities.GroupMemberSnapshot;
+import at.htlleonding.leomail.model.dto.contacts.RecipientDTO;
+import at.htlleonding.leomail.model.enums.Gender;
 import at.htlleonding.leomail.repositories.ContactRepository;
+import at.htlleonding.leomail.repositories.GroupMemberSnapshotRepository;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @ApplicationScoped
 public class GroupSplitter {
 
     private static final Logger LOGGER = Logger.getLogger(GroupSplitter.class);
+    // bounds the IN list of a single page query
+    private static final int MAX_PAGE_SIZE = 1000;
 
     @Inject
-    KeycloakAdminService keycloakAdminService;
-
-    @Inject
-    ContactRepository contactRepository;
+    GroupMemberSnapshotRepository groupMemberSnapshotRepository;
 
     /**
-     * Retrieves all contacts based on the specified groups and contact IDs.
+     * Resolves the recipients of the specified groups and contact IDs. The members of the groups are read from
+     * their member snapshots; a contact selected several times is returned only once. Contacts that are not
+     * stored locally are skipped, so Keycloak users have to be imported with
+     * {@link ContactRepository#importMissingKeycloakUsers} beforehand, outside of the calling transaction.
      *
      * @param groups   List of group IDs
      * @param contacts List of contact IDs
-     * @return List of all relevant contacts
+     * @return Distinct recipients
      */
-    public List<Contact> getAllContacts(List<String> groups, List<String> contacts) {
-        Set<Contact> allContacts = new HashSet<>();
-
-        List<Contact> contactList = contacts.stream()
-                .map(this::findOrCreateContact)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-        allContacts.addAll(contactList);
+    public List<RecipientDTO> resolveRecipients(List<String> groups, List<String> contacts) {
+        List<RecipientDTO> recipients = new ArrayList<>();
+        streamRecipients(groups, contacts, MAX_PAGE_SIZE, recipients::addAll);
+        return recipients;
+    }
 
-        // Process groups
+    /**
+     * Like {@link #resolveRecipients(List, List)}, but hands the recipients to the consumer in chunks.
+     * The recipient IDs are merged into one sorted array and loaded page by page as DTO projections,
+     * so no contact entity is loaded and at most one chunk is held in memory, however large the groups are.
+     *
+     * @param groups    List of group IDs
+     * @param contacts  List of contact IDs
+     * @param chunkSize Maximum number of recipients per chunk
+     * @param consumer  Receives each chunk; may clear the persistence context
+     * @return Total number of recipients
+     */
+    public int streamRecipients(List<String> groups, List<String> contacts, int chunkSize, Consumer<List<RecipientDTO>> consumer) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        List<String[]> groupMemberIds = new ArrayList<>(groups.size());
         for (String groupId : groups) {
-            Group groupEntity = Group.findById(groupId);
-            if (groupEntity != null && groupEntity.members != null) {
-                allContacts.addAll(groupEntity.members);
+            Optional<GroupMemberSnapshot> snapshot = groupMemberSnapshotRepository.get(groupId);
+            if (snapshot.isPresent()) {
+                groupMemberIds.add(snapshot.get().memberIds);
             } else {
-                LOGGER.warnf("Group with ID %s not found or has no members.", groupId);
+                LOGGER.warnf("Group with ID %s not found.", groupId);
             }
         }
+        String[] ids = mergeRecipientIds(contacts, groupMemberIds);
 
-        return new ArrayList<>(allContacts);
+        int pageSize = Math.min(chunkSize, MAX_PAGE_SIZE);
+        int total = 0;
+        for (int from = 0; from < ids.length; from += pageSize) {
+            List<String> pageIds = Arrays.asList(ids).subList(from, Math.min(from + pageSize, ids.length));
+            List<RecipientDTO> chunk = new ArrayList<>(pageIds.size());
+            for (Object[] row : recipientPage("select c.id, c.mailAddress, c.firstName, c.lastName, c.prefixTitle, " +
+                    "c.suffixTitle, c.company, c.positionAtCompany, c.gender from NaturalContact c", pageIds)) {
+                chunk.add(RecipientDTO.natural((String) row[0], (String) row[1], (String) row[2], (String) row[3],
+                        (String) row[4], (String) row[5], (String) row[6], (String) row[7], (Gender) row[8]));
+            }
+            for (Object[] row : recipientPage("select c.id, c.mailAddress, c.companyName from CompanyContact c", pageIds)) {
+                chunk.add(RecipientDTO.company((String) row[0], (String) row[1], (String) row[2]));
+            }
+            if (!chunk.isEmpty()) {
+                total += chunk.size();
+                consumer.accept(chunk);
+            }
+        }
+        LOGGER.debugf("Resolved %d recipients from %d groups and %d contacts.", total, groups.size(), contacts.size());
+        return total;
     }
 
     /**
-     * Finds an existing contact by ID or creates a new one from Keycloak if not found.
+     * Merges the directly selected contact IDs with the member IDs of the group snapshots.
      *
-     * @param contactId ID of the contact
-     * @return Contact instance or null if not found
+     * @param contactIds     IDs of the directly selected contacts
+     * @param groupMemberIds Member IDs of each selected group
+     * @return Distinct IDs, sorted so that pages are read in index order
      */
-    private Contact findOrCreateContact(String contactId) {
-        Contact contact = Contact.findById(contactId);
-        if (contact == null) {
-            NaturalContactSearchDTO userDTO = keycloakAdminService.findUserAsNaturalContactSearchDTO(contactId);
-            if (userDTO != null) {
-                contact = contactRepository.saveKeycloakUserLocally(userDTO.id(), userDTO.firstName(), userDTO.lastName(), userDTO.mailAddress());
-            } else {
-                LOGGER.warnf("User with ID %s not found in Keycloak.", contactId);
-            }
+    static String[] mergeRecipientIds(Collection<String> contactIds, List<String[]> groupMemberIds) {
+        Set<String> recipientIds = new HashSet<>(contactIds);
+        for (String[] memberIds : groupMemberIds) {
+            Collections.addAll(recipientIds, memberIds);
         }
-        return contact;
+        String[] ids = recipientIds.toArray(String[]::new);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private List<Object[]> recipientPage(String select, List<String> ids) {
+        return Contact.getEntityManager()
+                .createQuery(select + " where c.id in :ids", Object[].class)
+                .setParameter("ids", ids)
+                .getResultList();
     }
-}
\ No newline at end of file
+}
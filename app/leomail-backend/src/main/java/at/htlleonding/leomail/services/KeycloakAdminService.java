@@ -1,20 +1,33 @@
 package at.htlleonding.leomail.services;
 
 import at.htlleonding.leomail.entities.NaturalContact;
+import at.htlleonding.leomail.model.ContactChangedEvent;
 import at.htlleonding.leomail.model.dto.contacts.NaturalContactSearchDTO;
+import at.htlleonding.leomail.repositories.GroupMemberSnapshotRepository;
 import io.quarkus.runtime.StartupEvent;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.context.control.ActivateRequestContext;
+import jakarta.enterprise.event.Event;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
+import jakarta.ws.rs.NotFoundException;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.context.ManagedExecutor;
 import org.jboss.logging.Logger;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.representations.idm.UserRepresentation;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @ApplicationScoped
 public class KeycloakAdminService {
@@ -36,6 +49,15 @@ public class KeycloakAdminService {
     @Inject
     ManagedExecutor managedExecutor;
 
+    @Inject
+    GroupMemberSnapshotRepository groupMemberSnapshotRepository;
+
+    @Inject
+    Event<ContactChangedEvent> contactChanged;
+
+    @ConfigProperty(name = "leomail.keycloak.lookup-concurrency", defaultValue = "8")
+    int lookupConcurrency;
+
     /**
      * Beobachtet das StartupEvent und startet den Importprozess asynchron.
      */
@@ -65,23 +87,67 @@ public class KeycloakAdminService {
      */
     public NaturalContactSearchDTO findUserAsNaturalContactSearchDTO(String userId) {
         try {
-            UserRepresentation user = keycloakClient.realm(realm)
-                    .users().get(userId).toRepresentation();
-            if (user == null) {
-                return null;
-            }
-            return new NaturalContactSearchDTO(
-                    user.getId(),
-                    user.getFirstName(),
-                    user.getLastName(),
-                    user.getEmail()
-            );
+            return fetchUser(userId);
         } catch (Exception e) {
             LOGGER.error("Error finding user", e);
             throw new RuntimeException("Error finding user", e);
         }
     }
 
+    /**
+     * Finds several users at once. The admin API has no bulk lookup by ID, so the users are
+     * fetched concurrently, with at most {@code leomail.keycloak.lookup-concurrency} requests in flight.
+     *
+     * @param userIds User IDs
+     * @return Found users by ID; IDs unknown to Keycloak are missing
+     */
+    public Map<String, NaturalContactSearchDTO> findUsersAsNaturalContactSearchDTOs(Collection<String> userIds) {
+        Map<String, NaturalContactSearchDTO> users = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+
+        List<Callable<NaturalContactSearchDTO>> lookups = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            lookups.add(() -> fetchUser(userId));
+        }
+        int threads = Math.max(1, Math.min(lookupConcurrency, lookups.size()));
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofVirtual().name("leomail-keycloak-", 0).factory())) {
+            for (Future<NaturalContactSearchDTO> lookup : executor.invokeAll(lookups)) {
+                NaturalContactSearchDTO user = lookup.get();
+                if (user != null) {
+                    users.put(user.id(), user);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while finding users", e);
+        } catch (ExecutionException e) {
+            LOGGER.error("Error finding users", e.getCause());
+            throw new RuntimeException("Error finding users", e.getCause());
+        }
+        LOGGER.debugf("Found %d of %d users in Keycloak.", users.size(), userIds.size());
+        return users;
+    }
+
+    private NaturalContactSearchDTO fetchUser(String userId) {
+        UserRepresentation user;
+        try {
+            user = keycloakClient.realm(realm).users().get(userId).toRepresentation();
+        } catch (NotFoundException e) {
+            return null;
+        }
+        if (user == null) {
+            return null;
+        }
+        return new NaturalContactSearchDTO(
+                user.getId(),
+                user.getFirstName(),
+                user.getLastName(),
+                user.getEmail()
+        );
+    }
+
     /**
      * Importiert alle Nutzer in die Anwendungsdatenbank.
      */
@@ -144,10 +210,15 @@ public class KeycloakAdminService {
 
         NaturalContact existingContact = NaturalContact.findById(user.getId());
         if (existingContact != null) {
+            if (!user.getEmail().equals(existingContact.mailAddress)) {
+                groupMemberSnapshotRepository.invalidateContaining(existingContact.id);
+            }
             existingContact.firstName = user.getFirstName() != null ? user.getFirstName() : "";
             existingContact.lastName = user.getLastName() != null ? user.getLastName() : "";
             existingContact.mailAddress = user.getEmail();
             existingContact.persist();
+            contactChanged.fire(ContactChangedEvent.saved(new NaturalContactSearchDTO(existingContact.id,
+                    existingContact.firstName, existingContact.lastName, existingContact.mailAddress)));
             LOGGER.infof("Aktualisierter bestehender Keycloak-Benutzer '%s' in der Anwendungsdatenbank.", existingContact.id);
         } else {
             NaturalContact contact = new NaturalContact();
@@ -158,6 +229,8 @@ public class KeycloakAdminService {
             contact.kcUser = true;
 
             contact.persist();
+            contactChanged.fire(ContactChangedEvent.saved(new NaturalContactSearchDTO(contact.id,
+                    contact.firstName, contact.lastName, contact.mailAddress)));
             LOGGER.infof("Neuer Keycloak-Benutzer '%s' erfolgreich in der Anwendungsdatenbank gespeichert.", contact.id);
         }
     }
@@ -1,7 +1,9 @@
 package at.htlleonding.leomail.services;
 
 import at.htlleonding.leomail.entities.Attachment;
+import at.htlleonding.leomail.entities.SentTemplate;
 import at.htlleonding.leomail.model.SMTPInformation;
+import at.htlleonding.leomail.repositories.ContactRepository;
 import at.htlleonding.leomail.repositories.MailRepository;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -26,6 +28,9 @@ public class MailProcessingService {
     @Inject
     MailRepository repository;
 
+    @Inject
+    ContactRepository contactRepository;
+
     @Inject
     JsonWebToken jwt;
 
@@ -37,7 +42,7 @@ public class MailProcessingService {
 
     private static final org.jboss.logging.Logger LOGGER = org.jboss.logging.Logger.getLogger(MailProcessingService.class);
 
-    public void sendMailByTemplateWithAttachments(MultipartFormDataInput input) throws Exception {
+    public Long sendMailByTemplateWithAttachments(MultipartFormDataInput input) throws Exception {
         Map<String, List<InputPart>> uploadForm = input.getFormDataMap();
 
         // Extrahiere projectId
@@ -110,8 +115,33 @@ public class MailProcessingService {
             }
         }
 
+        // Keycloak-Nutzer werden vor der Transaktion des Versands lokal gespeichert, damit diese nicht auf Keycloak wartet
+        if (smtpInformation.receiver() != null) {
+            contactRepository.importMissingKeycloakUsers(smtpInformation.receiver().contacts());
+        }
+
         // Versand der E-Mails über das Repository
-        repository.sendMailsByTemplate(projectId, userId, smtpInformation, attachments);
+        return repository.sendMailsByTemplate(projectId, userId, smtpInformation, attachments);
+    }
+
+    /**
+     * Liefert den Status eines Versandjobs, sofern der Nutzer Zugriff auf das Projekt bzw. den Absender hat.
+     */
+    public Response getJobStatus(Long jobId) {
+        SentTemplate usedTemplate = SentTemplate.findById(jobId);
+        if (usedTemplate == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity("Job nicht gefunden")
+                    .build();
+        }
+        String userId = jwt.getClaim("sub");
+        boolean isSender = userId.equals(usedTemplate.senderId);
+        if (!isSender && (usedTemplate.project == null || !permissionService.hasPermission(usedTemplate.project.id, userId))) {
+            return Response.status(Response.Status.FORBIDDEN)
+                    .entity("Zugriff verweigert")
+                    .build();
+        }
+        return Response.ok(repository.getJobStatus(jobId)).build();
     }
 
     public Response getAttachment(Long id) {
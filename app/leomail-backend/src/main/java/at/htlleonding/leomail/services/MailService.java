@@ -1,31 +1,89 @@
 package at.htlleonding.leomail.services;
 
+import at.htlleonding.leomail.entities.NaturalContact;
+import at.htlleonding.leomail.entities.Project;
+import at.htlleonding.leomail.model.FromMailDTO;
+import at.htlleonding.leomail.model.MailType;
+import at.htlleonding.leomail.model.SenderCredentials;
+import at.htlleonding.leomail.services.smtp.AttachmentPartCache;
+import at.htlleonding.leomail.services.smtp.SmtpConnectionPool;
+import at.htlleonding.leomail.services.smtp.SmtpReplies;
+import com.sun.mail.smtp.SMTPMessage;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.mail.MessagingException;
-import jakarta.mail.Session;
-import jakarta.mail.Transport;
+import jakarta.mail.*;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 @ApplicationScoped
 public class MailService {
 
+    private static final Logger LOGGER = Logger.getLogger(MailService.class);
+
     @ConfigProperty(name = "jakarta.mail.host")
     String mailHost;
 
     @ConfigProperty(name = "jakarta.mail.port")
     String mailPort;
 
+    @ConfigProperty(name = "leomail.smtp.verification-cache-ttl", defaultValue = "PT30M")
+    Duration verificationCacheTtl;
+
+    @Inject
+    EncryptionService encryptionService;
+
+    @Inject
+    SmtpConnectionPool smtpConnectionPool;
+
+    // hash of sender and password -> expiry (System.nanoTime) of a successful verification
+    private final Map<String, Long> verifiedCredentials = new ConcurrentHashMap<>();
+
     /**
      * Verifies the Outlook credentials by attempting to connect to the SMTP server.
+     * Successful verifications are cached for a while, keyed by a hash of the address and the
+     * password, so a changed password is always verified again.
      *
      * @param email The user's Outlook email.
      * @param password The user's Outlook password.
      * @return true if the credentials are valid, false otherwise.
      */
     public boolean verifyOutlookCredentials(String email, String password) {
+        if (email == null || password == null) {
+            return false;
+        }
+        String cacheKey = credentialKey(email, password);
+        Long validUntil = verifiedCredentials.get(cacheKey);
+        if (validUntil != null) {
+            if (validUntil - System.nanoTime() > 0) {
+                return true;
+            }
+            verifiedCredentials.remove(cacheKey, validUntil);
+        }
+
+        if (!connectToOutlook(email, password)) {
+            return false;
+        }
+        long now = System.nanoTime();
+        verifiedCredentials.values().removeIf(expiry -> expiry - now <= 0);
+        verifiedCredentials.put(cacheKey, now + verificationCacheTtl.toNanos());
+        return true;
+    }
+
+    private boolean connectToOutlook(String email, String password) {
         Properties properties = new Properties();
         properties.put("mail.smtp.host", mailHost);
         properties.put("mail.smtp.port", mailPort);
@@ -44,4 +102,132 @@ public class MailService {
             return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Resolves the decrypted credentials of the sending account.
+     *
+     * @param fromMailDTO Mail type and ID of the sender (project ID for project mails)
+     * @param uid         ID of the user, used for personal mails
+     * @return The credentials of the sender
+     */
+    public SenderCredentials getSenderCredentials(FromMailDTO fromMailDTO, String uid) {
+        String senderEmail;
+        String senderPassword;
+        if (fromMailDTO == null) {
+            LOGGER.error("From information is missing.");
+            throw new IllegalArgumentException("From information is required.");
+        }
+        MailType mailType = fromMailDTO.mailType();
+        String senderId = fromMailDTO.id();
+        if (mailType == MailType.PROJECT) {
+            Project project = Project.findById(senderId);
+            if (project == null) {
+                LOGGER.errorf("Project with ID %s not found.", senderId);
+                throw new IllegalArgumentException("Project not found");
+            }
+            senderEmail = project.mailAddress;
+            senderPassword = project.password;
+            if (senderEmail == null || senderPassword == null) {
+                LOGGER.error("Project email address or password is missing.");
+                throw new IllegalArgumentException("Project email address or password is missing.");
+            }
+            senderPassword = encryptionService.decrypt(senderPassword);
+        } else if (mailType == MailType.PERSONAL) {
+            NaturalContact sender = NaturalContact.findById(uid);
+            if (sender == null) {
+                LOGGER.errorf("User with ID %s not found.", senderId);
+                throw new IllegalArgumentException("User not found");
+            }
+            senderEmail = sender.mailAddress;
+            senderPassword = sender.encryptedOutlookPassword;
+            if (senderEmail == null || senderPassword == null) {
+                LOGGER.error("User email address or password is missing.");
+                throw new IllegalArgumentException("User email address or password is missing.");
+            }
+            senderPassword = encryptionService.decrypt(senderPassword);
+        } else {
+            LOGGER.error("Invalid mail type.");
+            throw new IllegalArgumentException("Invalid mail type.");
+        }
+        return new SenderCredentials(senderEmail, senderPassword);
+    }
+
+    /**
+     * Sends a single HTML mail with attachments over a pooled Outlook SMTP connection.
+     *
+     * @param senderCredentials Credentials of the sending account
+     * @param toEmail           Recipient address
+     * @param subject           Subject of the mail
+     * @param content           Rendered HTML body
+     * @param attachmentParts   Prepared attachment parts, see {@link AttachmentPartCache}
+     * @throws Exception if building or sending the mail fails
+     */
+    public void sendEmail(SenderCredentials senderCredentials, String toEmail, String subject, String content, List<MimeBodyPart> attachmentParts) throws Exception {
+        MimeMessage message = new MimeMessage(smtpConnectionPool.session(senderCredentials));
+        fillMessage(message, senderCredentials, subject, content, attachmentParts);
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(toEmail));
+        send(senderCredentials, message);
+    }
+
+    /**
+     * Sends one HTML mail to several recipients in BCC. The To header only names the undisclosed
+     * recipients group, so recipients do not see each other and the sender gets no copy. If the
+     * provider rejects some of the recipients, the mail is still delivered to the others.
+     *
+     * @param senderCredentials Credentials of the sending account
+     * @param bccEmails         Recipient addresses
+     * @param subject           Subject of the mail
+     * @param content           Rendered HTML body, identical for all recipients
+     * @param attachmentParts   Prepared attachment parts, see {@link AttachmentPartCache}
+     * @throws Exception if building or sending the mail fails; partially delivered batches throw a
+     *                   {@link SendFailedException} listing the accepted and rejected addresses
+     */
+    public void sendBccEmail(SenderCredentials senderCredentials, List<String> bccEmails, String subject, String content, List<MimeBodyPart> attachmentParts) throws Exception {
+        SMTPMessage message = new SMTPMessage(smtpConnectionPool.session(senderCredentials));
+        message.setSendPartial(true);
+        fillMessage(message, senderCredentials, subject, content, attachmentParts);
+        message.setHeader("To", "undisclosed-recipients:;");
+        message.setRecipients(Message.RecipientType.BCC, InternetAddress.parse(String.join(",", bccEmails)));
+        send(senderCredentials, message);
+    }
+
+    private void fillMessage(MimeMessage message, SenderCredentials senderCredentials, String subject, String content, List<MimeBodyPart> attachmentParts) throws MessagingException {
+        message.setFrom(new InternetAddress(senderCredentials.email));
+        message.setSubject(subject);
+        message.setHeader("Content-Type", "text/html");
+
+        Multipart multipart = new MimeMultipart();
+
+        MimeBodyPart textBodyPart = new MimeBodyPart();
+        textBodyPart.setContent(content, "text/html; charset=utf-8");
+        multipart.addBodyPart(textBodyPart);
+
+        for (MimeBodyPart attachmentPart : attachmentParts) {
+            multipart.addBodyPart(attachmentPart);
+        }
+        message.setContent(multipart);
+    }
+
+    private void send(SenderCredentials senderCredentials, Message message) throws MessagingException {
+        try {
+            smtpConnectionPool.send(senderCredentials, message);
+        } catch (MessagingException e) {
+            if (SmtpReplies.isAuthenticationFailure(e)) {
+                verifiedCredentials.remove(credentialKey(senderCredentials.email, senderCredentials.password));
+            }
+            throw e;
+        }
+    }
+
+    private static String credentialKey(String email, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(email.toLowerCase().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -2,10 +2,12 @@ package at.htlleonding.leomail.services;
 
 import at.htlleonding.leomail.entities.Attachment;
 import at.htlleonding.leomail.entities.Project;
+import at.htlleonding.leomail.entities.SentTemplate;
 import at.htlleonding.leomail.entities.Template;
 import at.htlleonding.leomail.repositories.ProjectRepository;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
 import org.jboss.logging.Logger;
 
 @ApplicationScoped
@@ -45,6 +47,23 @@ public class PermissionService {
         return attachment.ownerId.equals(userId) || hasPermission(getProjectIdFromAttachment(attachment), userId);
     }
 
+    /**
+     * Überprüft, ob ein Nutzer einen Versandjob sehen darf: als Absender oder über das Projekt.
+     *
+     * @param sentTemplateId ID des SentTemplates.
+     * @param userId         ID des Nutzers.
+     * @return true, wenn der Nutzer Berechtigung hat, sonst false.
+     */
+    @Transactional
+    public boolean hasPermissionForSentTemplate(Long sentTemplateId, String userId) {
+        SentTemplate usedTemplate = SentTemplate.findById(sentTemplateId);
+        if (usedTemplate == null) {
+            return false;
+        }
+        return userId.equals(usedTemplate.senderId)
+                || (usedTemplate.project != null && hasPermission(usedTemplate.project.id, userId));
+    }
+
     private String getProjectIdFromAttachment(Attachment attachment) {
         if (attachment.sentTemplate != null && attachment.sentTemplate.project != null) {
             return attachment.sentTemplate.project.id;
@@ -1,17 +1,27 @@
 package at.htlleonding.leomail.services;
 
-import at.htlleonding.leomail.entities.CompanyContact;
-import at.htlleonding.leomail.entities.Contact;
-import at.htlleonding.leomail.entities.NaturalContact;
 import at.htlleonding.leomail.entities.Template;
+import at.htlleonding.leomail.model.dto.contacts.RecipientDTO;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
 import io.quarkus.qute.Engine;
+import io.quarkus.qute.TemplateException;
 import io.quarkus.qute.TemplateInstance;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 @ApplicationScoped
 public class TemplateBuilder {
@@ -21,63 +31,302 @@ public class TemplateBuilder {
     @Inject
     Engine engine;
 
+    @Inject
+    @CacheName("compiled-templates")
+    Cache compiledTemplates;
+
+    @ConfigProperty(name = "leomail.render.parallel-threshold", defaultValue = "200")
+    int parallelThreshold;
+
+    @ConfigProperty(name = "leomail.render.parallelism", defaultValue = "0")
+    int parallelism;
+
+    private ForkJoinPool renderPool;
+
+    @PostConstruct
+    void init() {
+        renderPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        renderPool.shutdown();
+    }
+
+    // fields of the other contact type are null in RecipientDTO and render as empty text
+    private static final Map<String, Function<RecipientDTO, String>> CONTACT_FIELDS = Map.of(
+            "firstname", RecipientDTO::firstName,
+            "lastname", RecipientDTO::lastName,
+            "mailaddress", RecipientDTO::mailAddress,
+            "prefixtitle", RecipientDTO::prefixTitle,
+            "suffixtitle", RecipientDTO::suffixTitle,
+            "company", RecipientDTO::company,
+            "positionatcompany", RecipientDTO::positionAtCompany,
+            "gender", recipient -> recipient.gender() != null ? recipient.gender().toString() : "",
+            "sex", recipient -> recipient.gender() != null ? recipient.gender().toString() : "",
+            "companyname", RecipientDTO::companyName
+    );
+
+    /**
+     * Parsed template. The greeting and the content are parsed as separate fragments, so that the
+     * greeting can be rendered once per distinct set of inputs; {@code greeting} is null if the greeting
+     * cannot be parsed on its own, {@code body} then holds the combined template.
+     * The source texts serve as version: a cached entry is only used while the template still has them.
+     */
+    record CompiledTemplate(String greetingSource, String contentSource, Fragment greeting, Fragment body) {
+
+        boolean matches(Template template) {
+            return greetingSource.equals(template.greeting.templateString) && contentSource.equals(template.content);
+        }
+    }
+
+    /**
+     * A parsed Qute template together with the contact bindings of its variables.
+     */
+    record Fragment(io.quarkus.qute.Template quteTemplate, VariableBinding[] bindings) {
+
+        TemplateInstance instance(String[] values, boolean personalized, String sex) {
+            TemplateInstance instance = quteTemplate.instance();
+            for (int i = 0; i < bindings.length; i++) {
+                instance.data(bindings[i].name(), values[i]);
+            }
+            instance.data("personalized", personalized);
+            instance.data("sex", sex);
+            return instance;
+        }
+
+        String[] values(RecipientDTO recipient) {
+            String[] values = new String[bindings.length];
+            for (int i = 0; i < bindings.length; i++) {
+                String value = bindings[i].valueOf(recipient);
+                values[i] = value != null ? value : "";
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Everything needed to render the mail of one recipient: the inputs of the greeting (used as memo key)
+     * and the bound content instance.
+     */
+    private record PreparedMail(GreetingKey greetingKey, TemplateInstance body) {
+    }
+
+    private record GreetingKey(boolean personalized, String sex, List<String> values) {
+    }
+
+    /**
+     * A template variable resolved to the contact field it reads; {@code field} is null for unknown variables.
+     */
+    record VariableBinding(String name, Function<RecipientDTO, String> field) {
+
+        String valueOf(RecipientDTO recipient) {
+            return field != null ? field.apply(recipient) : null;
+        }
+    }
+
     /**
      * Renders templates based on the template, contacts, and personalization flag.
+     * Large recipient lists are rendered in parallel chunks on a dedicated pool. The greeting is rendered
+     * only once per distinct combination of the values it reads and reused for all recipients sharing it.
      *
      * @param templateId   ID of the template
-     * @param contacts     List of contacts
+     * @param recipients   List of recipients
+     * @param personalized If true, the templates are personalized
+     * @return Rendered templates in the order of {@code recipients}; {@code null} where rendering failed
+     */
+    public List<String> renderTemplates(String templateId, List<RecipientDTO> recipients, boolean personalized) {
+        Template template = Template.findById(templateId);
+        if (template == null) throw new IllegalArgumentException("Template not found.");
+        return renderTemplates(template, recipients, personalized);
+    }
+
+    /**
+     * Renders an already loaded template for the given contacts.
+     *
+     * @param template     Template entity
+     * @param recipients   List of recipients
      * @param personalized If true, the templates are personalized
-     * @return List of rendered templates as strings
+     * @return Rendered templates in the order of {@code recipients}; {@code null} where rendering failed
+     * @see #renderTemplates(String, List, boolean)
      */
-    public List<String> renderTemplates(String templateId, List<Contact> contacts, boolean personalized) {
-        List<TemplateInstance> instances = buildTemplateInstances(templateId, contacts, personalized);
-        List<String> renderedTemplates = new ArrayList<>(instances.size());
+    public List<String> renderTemplates(Template template, List<RecipientDTO> recipients, boolean personalized) {
+        CompiledTemplate compiled = compile(template);
+        List<PreparedMail> mails = prepareMails(compiled, recipients, personalized);
+        Map<GreetingKey, String> greetings = new ConcurrentHashMap<>();
+        String[] renderedTemplates = new String[mails.size()];
+
+        if (mails.size() < parallelThreshold || renderPool.getParallelism() < 2) {
+            renderRange(compiled, mails, greetings, renderedTemplates, 0, mails.size());
+            return Arrays.asList(renderedTemplates);
+        }
 
-        for (TemplateInstance instance : instances) {
+        int chunkSize = Math.max(1, (mails.size() + renderPool.getParallelism() * 4 - 1) / (renderPool.getParallelism() * 4));
+        List<Callable<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < mails.size(); from += chunkSize) {
+            int start = from;
+            int end = Math.min(from + chunkSize, mails.size());
+            chunks.add(() -> {
+                renderRange(compiled, mails, greetings, renderedTemplates, start, end);
+                return null;
+            });
+        }
+        for (Future<Void> chunk : renderPool.invokeAll(chunks)) {
             try {
-                String rendered = instance.render();
-                renderedTemplates.add(rendered);
-                LOGGER.debugf("Rendered Template: %s", rendered);
+                chunk.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Rendering was interrupted", e);
+            } catch (ExecutionException e) {
+                LOGGER.error("Error rendering templates", e.getCause());
+            }
+        }
+        return Arrays.asList(renderedTemplates);
+    }
+
+    private void renderRange(CompiledTemplate compiled, List<PreparedMail> mails, Map<GreetingKey, String> greetings,
+                             String[] target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            PreparedMail mail = mails.get(i);
+            try {
+                if (compiled.greeting() == null) {
+                    target[i] = mail.body().render();
+                } else {
+                    String greeting = greetings.computeIfAbsent(mail.greetingKey(), key -> compiled.greeting()
+                            .instance(key.values().toArray(String[]::new), key.personalized(), key.sex())
+                            .render());
+                    target[i] = greeting + "<br>" + mail.body().render();
+                }
+                LOGGER.debugf("Rendered Template: %s", target[i]);
             } catch (Exception e) {
                 LOGGER.error("Error rendering template", e);
             }
         }
-
-        return renderedTemplates;
     }
 
     /**
-     * Builds a list of TemplateInstance based on the template and contacts.
+     * Renders a non-personalized template once for all recipients, provided that its output does not
+     * depend on any contact data. The template is rendered without personalization for every gender,
+     * once with empty contact fields and once with a distinct placeholder in every field; if any of the
+     * outputs differ, it is contact-specific. Fields that are only read in personalized sections
+     * therefore do not prevent sharing, while fields that decide between texts (e.g. a section that is
+     * skipped for contacts without a company) do.
      *
-     * @param templateId   ID of the template
-     * @param contacts     List of contacts
-     * @param personalized If true, the templates are personalized
-     * @return List of TemplateInstance
+     * @param templateId ID of the template
+     * @return The shared body, or empty if the template has to be rendered per contact
      */
-    private List<TemplateInstance> buildTemplateInstances(String templateId, List<Contact> contacts, boolean personalized) {
+    public Optional<String> renderShared(String templateId) {
         Template template = Template.findById(templateId);
         if (template == null) throw new IllegalArgumentException("Template not found.");
 
-        String combinedTemplate = template.greeting.templateString + "<br>" + template.content;
-        io.quarkus.qute.Template quteTemplate = engine.parse(combinedTemplate);
-        List<String> templateVariables = extractTemplateVariables(combinedTemplate);
+        CompiledTemplate compiled = compile(template);
+        String shared = null;
+        for (boolean placeholders : List.of(false, true)) {
+            for (String sex : List.of("M", "W", "")) {
+                String rendered = renderProbe(compiled.body(), sex, placeholders);
+                if (compiled.greeting() != null) {
+                    rendered = renderProbe(compiled.greeting(), sex, placeholders) + "<br>" + rendered;
+                }
+                if (shared == null) {
+                    shared = rendered;
+                } else if (!shared.equals(rendered)) {
+                    return Optional.empty();
+                }
+            }
+        }
+        return Optional.of(shared);
+    }
 
-        List<TemplateInstance> instances = new ArrayList<>(contacts.size());
+    // unknown variables stay empty, as they render as empty text for every contact
+    private String renderProbe(Fragment fragment, String sex, boolean placeholders) {
+        String[] values = new String[fragment.bindings().length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = placeholders && fragment.bindings()[i].field() != null ? "\uE000" + i + "\uE000" : "";
+        }
+        return fragment.instance(values, false, sex).render();
+    }
 
-        for (Contact contact : contacts) {
-            TemplateInstance instance = quteTemplate.instance();
-            for (String variable : templateVariables) {
-                String value = getContactValue(contact, variable);
-                instance.data(variable, value != null ? value : "");
+    /**
+     * Binds the contact data of every recipient.
+     *
+     * @param compiled     Compiled template
+     * @param recipients   List of recipients
+     * @param personalized If true, the templates are personalized
+     * @return One prepared mail per recipient
+     */
+    private List<PreparedMail> prepareMails(CompiledTemplate compiled, List<RecipientDTO> recipients, boolean personalized) {
+        List<PreparedMail> mails = new ArrayList<>(recipients.size());
+        for (RecipientDTO recipient : recipients) {
+            String sex = recipient.gender() != null ? recipient.gender().toString() : "";
+            TemplateInstance body = compiled.body().instance(compiled.body().values(recipient), personalized, sex);
+            GreetingKey greetingKey = compiled.greeting() == null ? null
+                    : new GreetingKey(personalized, sex, List.of(compiled.greeting().values(recipient)));
+            mails.add(new PreparedMail(greetingKey, body));
+        }
+        return mails;
+    }
+
+    /**
+     * Removes the compiled form of a template, e.g. after it was updated or deleted.
+     *
+     * @param templateId ID of the template
+     */
+    public void invalidate(String templateId) {
+        compiledTemplates.invalidate(templateId).await().indefinitely();
+    }
+
+    /**
+     * Returns the parsed template from the cache, parsing it only if it is missing or its text has changed.
+     *
+     * @param template Template entity
+     * @return Parsed template and its variables
+     */
+    private CompiledTemplate compile(Template template) {
+        CompiledTemplate compiled = cached(template);
+        if (!compiled.matches(template)) {
+            // the text changed since it was cached: replace the stale entry
+            compiledTemplates.invalidate(template.id).await().indefinitely();
+            compiled = cached(template);
+        }
+        // another thread may have cached an older text again in the meantime
+        return compiled.matches(template) ? compiled : parse(template);
+    }
+
+    private CompiledTemplate cached(Template template) {
+        return compiledTemplates.<String, CompiledTemplate>get(template.id, id -> parse(template))
+                .await().indefinitely();
+    }
+
+    private CompiledTemplate parse(Template template) {
+        String greetingSource = template.greeting.templateString;
+        String contentSource = template.content;
+        String combinedSource = greetingSource + "<br>" + contentSource;
+        for (String variable : new LinkedHashSet<>(extractTemplateVariables(combinedSource))) {
+            String key = variable.toLowerCase();
+            if (!CONTACT_FIELDS.containsKey(key)) {
+                LOGGER.warnf("Unknown template variable: %s", variable);
             }
-            instance.data("personalized", personalized);
-            instance.data("sex", contact instanceof NaturalContact naturalContact ?
-                    (naturalContact.gender != null ? naturalContact.gender.toString() : "") : "");
-            instances.add(instance);
         }
-        return instances;
+
+        try {
+            Fragment greeting = fragment(greetingSource);
+            Fragment body = fragment(contentSource);
+            return new CompiledTemplate(greetingSource, contentSource, greeting, body);
+        } catch (TemplateException e) {
+            // e.g. a section opened in the greeting and closed in the content
+            LOGGER.debugf("Greeting cannot be rendered separately, using the combined template: %s", e.getMessage());
+            return new CompiledTemplate(greetingSource, contentSource, null, fragment(combinedSource));
+        }
     }
 
+    private Fragment fragment(String source) {
+        List<String> variables = List.copyOf(new LinkedHashSet<>(extractTemplateVariables(source)));
+        VariableBinding[] bindings = new VariableBinding[variables.size()];
+        for (int i = 0; i < variables.size(); i++) {
+            bindings[i] = new VariableBinding(variables.get(i), CONTACT_FIELDS.get(variables.get(i).toLowerCase()));
+        }
+        return new Fragment(engine.parse(source), bindings);
+    }
 
     /**
      * Extracts variables from the template content.
@@ -120,91 +369,4 @@ public class TemplateBuilder {
         }
         return isControl;
     }
-
-    /**
-     * Gets the value of a contact based on the variable.
-     *
-     * @param contact  Contact
-     * @param variable Variable in the template
-     * @return Value of the contact for the variable
-     */
-    private String getContactValue(Contact contact, String variable) {
-        String value;
-        if (contact instanceof NaturalContact naturalContact) {
-            value = getNaturalContactValue(naturalContact, variable);
-        } else if (contact instanceof CompanyContact companyContact) {
-            value = getCompanyContactValue(companyContact, variable);
-        } else {
-            value = null;
-        }
-        LOGGER.debugf("Variable '%s' mapped to '%s' for Contact ID %s", variable, value, contact.id);
-        return value;
-    }
-
-    /**
-     * Gets the value for a NaturalContact based on the variable.
-     *
-     * @param contact  NaturalContact
-     * @param variable Variable in the template
-     * @return Value of the contact for the variable
-     */
-    private String getNaturalContactValue(NaturalContact contact, String variable) {
-        String value;
-        switch (variable.toLowerCase()) {
-            case "firstname":
-                value = contact.firstName;
-                break;
-            case "lastname":
-                value = contact.lastName;
-                break;
-            case "mailaddress":
-                value = contact.mailAddress;
-                break;
-            case "prefixtitle":
-                value = contact.prefixTitle != null ? contact.prefixTitle : "";
-                break;
-            case "suffixtitle":
-                value = contact.suffixTitle != null ? contact.suffixTitle : "";
-                break;
-            case "company":
-                value = contact.company;
-                break;
-            case "positionatcompany":
-                value = contact.positionAtCompany;
-                break;
-            case "gender":
-            case "sex":
-                value = contact.gender != null ? contact.gender.toString() : "";
-                break;
-            default:
-                LOGGER.warnf("Unknown template variable: %s for NaturalContact", variable);
-                value = null;
-        }
-        LOGGER.debugf("Mapping variable '%s' to value '%s' for Contact ID %s", variable, value, contact.id);
-        return value;
-    }
-
-    /**
-     * Gets the value for a CompanyContact based on the variable.
-     *
-     * @param contact  CompanyContact
-     * @param variable Variable in the template
-     * @return Value of the contact for the variable
-     */
-    private String getCompanyContactValue(CompanyContact contact, String variable) {
-        String value;
-        switch (variable.toLowerCase()) {
-            case "companyname":
-                value = contact.companyName;
-                break;
-            case "mailaddress":
-                value = contact.mailAddress;
-                break;
-            default:
-                LOGGER.warnf("Unknown template variable: %s for CompanyContact", variable);
-                value = null;
-        }
-        LOGGER.debugf("Mapping variable '%s' to value '%s' for CompanyContact ID %s", variable, value, contact.id);
-        return value;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package at.htlleonding.leomail.services.dispatch;
+
+import at.htlleonding.leomail.model.DispatchResult;
+import at.htlleonding.leomail.model.OutgoingMail;
+import at.htlleonding.leomail.services.smtp.SenderRateLimiter;
+import at.htlleonding.leomail.services.smtp.SmtpReplies;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.mail.Address;
+import jakarta.mail.SendFailedException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Fans the mails of a campaign out over virtual threads. The number of mails in flight is
+ * capped per sender account (to stay below the provider's connection limit) and globally,
+ * and each sender's send rate is paced by the {@link SenderRateLimiter}.
+ */
+@ApplicationScoped
+public class MailDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(MailDispatcher.class);
+
+    @Inject
+    SenderRateLimiter senderRateLimiter;
+
+    @ConfigProperty(name = "leomail.dispatch.max-concurrent-per-sender", defaultValue = "4")
+    int maxConcurrentPerSender;
+
+    @ConfigProperty(name = "leomail.dispatch.max-concurrent", defaultValue = "32")
+    int maxConcurrent;
+
+    private final Map<String, Semaphore> senderLimits = new ConcurrentHashMap<>();
+    private Semaphore globalLimit;
+    private ExecutorService executor;
+
+    @FunctionalInterface
+    public interface MailSender {
+        void send(OutgoingMail mail) throws Exception;
+    }
+
+    @PostConstruct
+    void init() {
+        globalLimit = new Semaphore(maxConcurrent, true);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Sends all mails concurrently and waits until every send has finished.
+     *
+     * @param senderKey  Key of the sending account, e.g. its mail address
+     * @param mails      Mails to send
+     * @param mailSender Performs the actual SMTP send of a single mail
+     * @return One result per SentMail, in the same order as {@code mails}
+     */
+    public List<DispatchResult> dispatch(String senderKey, List<OutgoingMail> mails, MailSender mailSender) {
+        Semaphore senderLimit = senderLimits.computeIfAbsent(senderKey, key -> new Semaphore(maxConcurrentPerSender, true));
+
+        List<Future<List<DispatchResult>>> futures = new ArrayList<>(mails.size());
+        for (OutgoingMail mail : mails) {
+            futures.add(executor.submit(() -> sendLimited(senderKey, senderLimit, mail, mailSender)));
+        }
+
+        List<DispatchResult> results = new ArrayList<>(mails.size());
+        for (int i = 0; i < futures.size(); i++) {
+            OutgoingMail mail = mails.get(i);
+            try {
+                results.addAll(futures.get(i).get());
+            } catch (ExecutionException e) {
+                results.addAll(failureResults(mail, e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.addAll(failureResults(mail, e));
+            }
+        }
+        return results;
+    }
+
+    private List<DispatchResult> sendLimited(String senderKey, Semaphore senderLimit, OutgoingMail mail, MailSender mailSender) throws InterruptedException {
+        // always acquire the sender permit and rate token first, so that waiting mails of one sender do not hold global permits
+        senderLimit.acquire();
+        try {
+            senderRateLimiter.acquire(senderKey);
+            globalLimit.acquire();
+            try {
+                mailSender.send(mail);
+                senderRateLimiter.onSuccess(senderKey);
+                return DispatchResult.success(mail);
+            } catch (Exception e) {
+                if (SmtpReplies.isThrottling(e)) {
+                    senderRateLimiter.onThrottled(senderKey);
+                }
+                LOGGER.errorf("Error sending email to %s: %s", String.join(", ", mail.recipients()), e.getMessage());
+                return failureResults(mail, e);
+            } finally {
+                globalLimit.release();
+            }
+        } finally {
+            senderLimit.release();
+        }
+    }
+
+    /**
+     * Maps a failed send to one result per recipient. If the provider accepted part of a BCC
+     * message, the accepted recipients count as sent and only the rejected ones as failed.
+     */
+    static List<DispatchResult> failureResults(OutgoingMail mail, Throwable error) {
+        SendFailedException partial = mail.recipients().size() > 1 ? SmtpReplies.sendFailure(error) : null;
+        if (partial == null || partial.getValidSentAddresses() == null) {
+            return DispatchResult.failure(mail, SmtpReplies.isPermanent(error), error.getMessage());
+        }
+        Set<String> delivered = new HashSet<>();
+        for (Address address : partial.getValidSentAddresses()) {
+            delivered.add(SmtpReplies.plainAddress(address));
+        }
+        return DispatchResult.partial(mail, delivered, SmtpReplies.rejectedRecipients(partial), error.getMessage());
+    }
+}
@@ -0,0 +1,167 @@
+package at.htlleonding.leomail.services.dispatch;
+
+import at.htlleonding.leomail.model.DispatchResult;
+import at.htlleonding.leomail.model.MailsEnqueuedEvent;
+import at.htlleonding.leomail.model.OutboxBatch;
+import at.htlleonding.leomail.repositories.OutboxRepository;
+import at.htlleonding.leomail.services.MailService;
+import at.htlleonding.leomail.services.smtp.AttachmentPartCache;
+import at.htlleonding.leomail.websockets.CampaignProgressWebSocket;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains the mail outbox: claims due mails in batches, sends them through the
+ * {@link MailDispatcher} and commits the results in small chunks.
+ */
+@ApplicationScoped
+public class OutboxWorker {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboxWorker.class);
+
+    @Inject
+    OutboxRepository outboxRepository;
+
+    @Inject
+    MailService mailService;
+
+    @Inject
+    MailDispatcher mailDispatcher;
+
+    @Inject
+    AttachmentPartCache attachmentPartCache;
+
+    @Inject
+    CampaignProgressWebSocket campaignProgress;
+
+    @ConfigProperty(name = "leomail.outbox.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "leomail.outbox.commit-chunk-size", defaultValue = "25")
+    int commitChunkSize;
+
+    @ConfigProperty(name = "leomail.outbox.lease-duration", defaultValue = "PT5M")
+    Duration leaseDuration;
+
+    private final String workerId = UUID.randomUUID().toString();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    // claimed mails whose results have not been committed yet; their leases are renewed periodically
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        // own thread without propagated request context, so sending is not tied to the submitting request
+        executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("leomail-outbox").factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Starts draining right after a request has committed new outbox rows,
+     * instead of waiting for the next scheduler run.
+     */
+    void onMailsEnqueued(@Observes(during = TransactionPhase.AFTER_SUCCESS) MailsEnqueuedEvent event) {
+        CompletableFuture.runAsync(this::processPendingMails, executor).exceptionally(ex -> {
+            LOGGER.error("Error while processing the outbox", ex);
+            return null;
+        });
+    }
+
+    /**
+     * Claims and sends due mails until the outbox is empty.
+     * Only one drain runs per instance at a time; other instances claim disjoint rows.
+     */
+    public void processPendingMails() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Long> claimed;
+            while (!(claimed = outboxRepository.claim(workerId, batchSize, leaseDuration)).isEmpty()) {
+                LOGGER.infof("Processing %d mails from the outbox.", claimed.size());
+                inFlight.addAll(claimed);
+                List<OutboxBatch> batches;
+                try {
+                    batches = outboxRepository.loadBatch(claimed);
+                } catch (RuntimeException e) {
+                    LOGGER.errorf(e, "Could not load %d claimed mails, leaving them to the lease.", claimed.size());
+                    batches = List.of();
+                }
+                for (OutboxBatch batch : batches) {
+                    try {
+                        send(batch);
+                    } catch (RuntimeException e) {
+                        // the uncommitted rows of this batch are claimed again once their lease expires
+                        LOGGER.errorf(e, "Error while sending mails of SentTemplate ID %d.", batch.sentTemplateId());
+                        batch.mails().forEach(mail -> mail.sentMailIds().forEach(inFlight::remove));
+                    }
+                }
+                inFlight.removeAll(claimed);
+            }
+        } finally {
+            inFlight.clear();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Extends the leases of the mails this worker is still sending, so that they do not expire
+     * while a slow (rate limited) batch is in progress and get claimed by another instance.
+     */
+    @Scheduled(every = "${leomail.outbox.lease-renewal-interval}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void renewLeases() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        int renewed = outboxRepository.renewLease(workerId, Set.copyOf(inFlight), leaseDuration);
+        LOGGER.debugf("Worker %s renewed the lease of %d mails.", workerId, renewed);
+    }
+
+    private void send(OutboxBatch batch) {
+        List<DispatchResult> results = mailDispatcher.dispatch(batch.senderCredentials().email, batch.mails(),
+                mail -> {
+                    try (AttachmentPartCache.Borrowed attachmentParts = attachmentPartCache.borrow(batch.sentTemplateId(), batch.attachments())) {
+                        if (mail.bcc()) {
+                            mailService.sendBccEmail(batch.senderCredentials(), mail.recipients(), mail.subject(), mail.content(), attachmentParts.parts());
+                        } else {
+                            mailService.sendEmail(batch.senderCredentials(), mail.recipients().get(0), mail.subject(), mail.content(), attachmentParts.parts());
+                        }
+                    }
+                });
+
+        for (int from = 0; from < results.size(); from += commitChunkSize) {
+            List<DispatchResult> chunk = results.subList(from, Math.min(from + commitChunkSize, results.size()));
+            outboxRepository.complete(workerId, chunk);
+            chunk.forEach(result -> inFlight.remove(result.sentMailId()));
+            campaignProgress.publish(batch.sentTemplateId());
+        }
+
+        long sentCount = results.stream().filter(DispatchResult::sent).count();
+        LOGGER.infof("SentTemplate ID %d: %d of %d mails sent.", batch.sentTemplateId(), sentCount, results.size());
+
+        if (!batch.attachments().isEmpty() && !outboxRepository.hasPendingMails(batch.sentTemplateId())) {
+            attachmentPartCache.evict(batch.sentTemplateId());
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package at.htlleonding.leomail.services.smtp;
+
+import at.htlleonding.leomail.entities.Attachment;
+import at.htlleonding.leomail.services.StorageService;
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.activation.FileDataSource;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.PreencodedMimeBodyPart;
+import jakarta.mail.util.ByteArrayDataSource;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads and base64-encodes each attachment once per SentTemplate and shares the encoded
+ * content between all recipient messages of the campaign. Encoded content is kept in memory up
+ * to a configurable total size and spilled to temp files beyond that.
+ */
+@ApplicationScoped
+public class AttachmentPartCache {
+
+    private static final Logger LOGGER = Logger.getLogger(AttachmentPartCache.class);
+
+    @Inject
+    StorageService storageService;
+
+    @ConfigProperty(name = "leomail.attachments.cache.max-memory", defaultValue = "64M")
+    MemorySize maxMemory;
+
+    @ConfigProperty(name = "leomail.attachments.cache.idle-timeout", defaultValue = "PT15M")
+    Duration idleTimeout;
+
+    private final Map<Long, CampaignParts> campaigns = new ConcurrentHashMap<>();
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    /**
+     * Creates fresh body parts for one message. The encoded content behind them is
+     * fetched from MinIO only on the first call for the campaign. The content stays
+     * available until the returned holder is closed, even if the campaign is evicted
+     * in the meantime, so it has to be closed once the message has been sent.
+     *
+     * @param sentTemplateId ID of the campaign
+     * @param attachments    Attachments of the campaign
+     * @return The body parts, one per attachment
+     * @throws MessagingException if an attachment cannot be loaded
+     */
+    public Borrowed borrow(Long sentTemplateId, List<Attachment> attachments) throws MessagingException {
+        if (attachments.isEmpty()) {
+            return new Borrowed(List.of(), List.of());
+        }
+        List<EncodedAttachment> acquired = new ArrayList<>(attachments.size());
+        List<MimeBodyPart> bodyParts = new ArrayList<>(attachments.size());
+        try {
+            for (Attachment attachment : attachments) {
+                EncodedAttachment encoded = acquire(sentTemplateId, attachment);
+                acquired.add(encoded);
+                bodyParts.add(encoded.newBodyPart());
+            }
+        } catch (MessagingException | RuntimeException e) {
+            acquired.forEach(EncodedAttachment::release);
+            throw e;
+        }
+        return new Borrowed(bodyParts, acquired);
+    }
+
+    private EncodedAttachment acquire(Long sentTemplateId, Attachment attachment) throws MessagingException {
+        while (true) {
+            CampaignParts parts = campaigns.computeIfAbsent(sentTemplateId, id -> new CampaignParts());
+            parts.lastAccess = System.nanoTime();
+            EncodedAttachment encoded = parts.get(attachment);
+            if (encoded.acquire()) {
+                return encoded;
+            }
+            // evicted concurrently: drop the stale entry and load the attachment again
+            campaigns.remove(sentTemplateId, parts);
+        }
+    }
+
+    /**
+     * Releases the cached content of a campaign, e.g. after all of its mails are sent.
+     *
+     * @param sentTemplateId ID of the campaign
+     */
+    public void evict(Long sentTemplateId) {
+        CampaignParts parts = campaigns.remove(sentTemplateId);
+        if (parts != null) {
+            parts.release();
+            LOGGER.debugf("Evicted cached attachments of SentTemplate ID %d.", sentTemplateId);
+        }
+    }
+
+    /**
+     * Evicts campaigns that have not been used for a while, in case their completion was missed.
+     */
+    @Scheduled(every = "5m")
+    void evictIdleCampaigns() {
+        long now = System.nanoTime();
+        campaigns.forEach((id, parts) -> {
+            if (now - parts.lastAccess > idleTimeout.toNanos()) {
+                evict(id);
+            }
+        });
+    }
+
+    @PreDestroy
+    void clear() {
+        campaigns.keySet().forEach(this::evict);
+    }
+
+    private final class CampaignParts {
+        final Map<Long, CompletableFuture<EncodedAttachment>> encoded = new ConcurrentHashMap<>();
+        volatile long lastAccess = System.nanoTime();
+
+        EncodedAttachment get(Attachment attachment) throws MessagingException {
+            CompletableFuture<EncodedAttachment> future = new CompletableFuture<>();
+            CompletableFuture<EncodedAttachment> existing = encoded.putIfAbsent(attachment.id, future);
+            if (existing == null) {
+                try {
+                    future.complete(encode(attachment));
+                } catch (Exception e) {
+                    encoded.remove(attachment.id, future);
+                    future.completeExceptionally(e);
+                }
+            } else {
+                future = existing;
+            }
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                throw new MessagingException("Attachment '" + attachment.fileName + "' could not be loaded", (Exception) e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while loading attachment '" + attachment.fileName + "'", e);
+            }
+        }
+
+        void release() {
+            // attachments still being encoded are evicted as soon as they are done
+            for (CompletableFuture<EncodedAttachment> future : encoded.values()) {
+                future.thenAccept(EncodedAttachment::evict);
+            }
+        }
+    }
+
+    private EncodedAttachment encode(Attachment attachment) throws Exception {
+        // base64 grows the content by 4/3 plus a CRLF every 76 characters
+        long estimatedSize = attachment.size != null && attachment.size >= 0 ? attachment.size * 4 / 3 + attachment.size / 54 + 4 : -1;
+        boolean inMemory = estimatedSize >= 0 && reserveMemory(estimatedSize);
+
+        try (InputStream in = storageService.downloadFile(attachment.filePath)) {
+            if (inMemory) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) estimatedSize);
+                try (OutputStream out = Base64.getMimeEncoder().wrap(buffer)) {
+                    in.transferTo(out);
+                }
+                return new EncodedAttachment(attachment, buffer.toByteArray(), null, estimatedSize);
+            }
+            Path file = Files.createTempFile("leomail-attachment-", ".b64");
+            try (OutputStream out = Base64.getMimeEncoder().wrap(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                in.transferTo(out);
+            }
+            return new EncodedAttachment(attachment, null, file, 0);
+        } catch (Exception e) {
+            if (inMemory) {
+                memoryUsed.addAndGet(-estimatedSize);
+            }
+            throw e;
+        }
+    }
+
+    private boolean reserveMemory(long bytes) {
+        long used;
+        do {
+            used = memoryUsed.get();
+            if (used + bytes > maxMemory.asLongValue()) {
+                return false;
+            }
+        } while (!memoryUsed.compareAndSet(used, used + bytes));
+        return true;
+    }
+
+    private final class EncodedAttachment {
+        final String fileName;
+        final String contentType;
+        final byte[] content;
+        final Path file;
+        final long reservedMemory;
+        // messages currently using the content; it is freed once evicted and no longer borrowed
+        private int borrowed;
+        private boolean evicted;
+        private boolean released;
+
+        EncodedAttachment(Attachment attachment, byte[] content, Path file, long reservedMemory) {
+            this.fileName = attachment.fileName;
+            this.contentType = attachment.contentType;
+            this.content = content;
+            this.file = file;
+            this.reservedMemory = reservedMemory;
+        }
+
+        MimeBodyPart newBodyPart() throws MessagingException {
+            DataSource source;
+            if (content != null) {
+                source = new ByteArrayDataSource(content, contentType);
+            } else {
+                FileDataSource fileSource = new FileDataSource(file.toFile());
+                fileSource.setFileTypeMap(new FixedFileTypeMap(contentType));
+                source = fileSource;
+            }
+            MimeBodyPart part = new PreencodedMimeBodyPart("base64");
+            part.setDataHandler(new DataHandler(source));
+            part.setFileName(fileName);
+            return part;
+        }
+
+        /**
+         * Marks the attachment as used by a message in flight.
+         *
+         * @return false if it has already been evicted and must not be used anymore
+         */
+        synchronized boolean acquire() {
+            if (evicted) {
+                return false;
+            }
+            borrowed++;
+            return true;
+        }
+
+        synchronized void release() {
+            borrowed--;
+            freeIfUnused();
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            freeIfUnused();
+        }
+
+        private void freeIfUnused() {
+            if (!evicted || borrowed > 0 || released) {
+                return;
+            }
+            released = true;
+            memoryUsed.addAndGet(-reservedMemory);
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    LOGGER.warnf("Could not delete temp file %s: %s", file, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Body parts of one message. Closing it releases the cached content they are backed by.
+     */
+    public static final class Borrowed implements AutoCloseable {
+        private final List<MimeBodyPart> parts;
+        private final List<EncodedAttachment> attachments;
+        private boolean closed;
+
+        private Borrowed(List<MimeBodyPart> parts, List<EncodedAttachment> attachments) {
+            this.parts = parts;
+            this.attachments = attachments;
+        }
+
+        public List<MimeBodyPart> parts() {
+            return parts;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                attachments.forEach(EncodedAttachment::release);
+            }
+        }
+    }
+
+    private static final class FixedFileTypeMap extends jakarta.activation.FileTypeMap {
+        private final String contentType;
+
+        FixedFileTypeMap(String contentType) {
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType(File file) {
+            return contentType;
+        }
+
+        @Override
+        public String getContentType(String filename) {
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package at.htlleonding.leomail.services.smtp;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket per sender account whose rate adapts to the provider: every throttling
+ * response halves the rate, throttle-free sending raises it again step by step
+ * (additive increase, multiplicative decrease).
+ */
+@ApplicationScoped
+public class SenderRateLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(SenderRateLimiter.class);
+
+    @ConfigProperty(name = "leomail.smtp.rate.initial-per-minute", defaultValue = "30")
+    double initialPerMinute;
+
+    @ConfigProperty(name = "leomail.smtp.rate.min-per-minute", defaultValue = "2")
+    double minPerMinute;
+
+    @ConfigProperty(name = "leomail.smtp.rate.max-per-minute", defaultValue = "60")
+    double maxPerMinute;
+
+    @ConfigProperty(name = "leomail.smtp.rate.increase-per-minute", defaultValue = "3")
+    double increasePerMinute;
+
+    @ConfigProperty(name = "leomail.smtp.rate.increase-interval", defaultValue = "PT30S")
+    Duration increaseInterval;
+
+    @ConfigProperty(name = "leomail.smtp.rate.burst", defaultValue = "5")
+    int burst;
+
+    // mails already in flight fail together; throttling responses within this window count as one
+    @ConfigProperty(name = "leomail.smtp.rate.decrease-coalesce-window", defaultValue = "PT1S")
+    Duration decreaseCoalesceWindow;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Blocks until the sender may send the next message.
+     *
+     * @param senderKey Mail address of the sending account
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(String senderKey) throws InterruptedException {
+        Bucket bucket = bucketFor(senderKey);
+        long waitNanos;
+        while ((waitNanos = bucket.tryTake()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Records an accepted message; raises the rate once per increase interval.
+     *
+     * @param senderKey Mail address of the sending account
+     */
+    public void onSuccess(String senderKey) {
+        bucketFor(senderKey).increase();
+    }
+
+    /**
+     * Records a throttling response of the provider; halves the rate and empties the bucket.
+     *
+     * @param senderKey Mail address of the sending account
+     */
+    public void onThrottled(String senderKey) {
+        bucketFor(senderKey).decrease(senderKey);
+    }
+
+    /**
+     * Current rate of every sender seen so far.
+     *
+     * @return Messages per minute, keyed by sender mail address
+     */
+    public Map<String, Double> currentRates() {
+        Map<String, Double> rates = new TreeMap<>();
+        buckets.forEach((sender, bucket) -> rates.put(sender, Math.round(bucket.ratePerMinute() * 10) / 10.0));
+        return rates;
+    }
+
+    private Bucket bucketFor(String senderKey) {
+        return buckets.computeIfAbsent(senderKey, key -> new Bucket());
+    }
+
+    // ReentrantLock instead of synchronized, so that waiting virtual threads are not pinned
+    private final class Bucket {
+        private final ReentrantLock lock = new ReentrantLock();
+        private double ratePerMinute = Math.min(Math.max(initialPerMinute, minPerMinute), maxPerMinute);
+        private double tokens = Math.min(burst, ratePerMinute);
+        private long lastRefill = System.nanoTime();
+        private long lastChange = System.nanoTime();
+        private long lastDecrease;
+
+        long tryTake() {
+            lock.lock();
+            try {
+                refill();
+                if (tokens >= 1) {
+                    tokens--;
+                    return 0;
+                }
+                return (long) ((1 - tokens) * TimeUnit.MINUTES.toNanos(1) / ratePerMinute);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void increase() {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                if (ratePerMinute < maxPerMinute && now - lastChange >= increaseInterval.toNanos()) {
+                    refill();
+                    ratePerMinute = Math.min(maxPerMinute, ratePerMinute + increasePerMinute);
+                    lastChange = now;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void decrease(String senderKey) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                tokens = 0;
+                lastRefill = now;
+                if (lastDecrease != 0 && now - lastDecrease < decreaseCoalesceWindow.toNanos()) {
+                    return;
+                }
+                ratePerMinute = Math.max(minPerMinute, ratePerMinute / 2);
+                lastChange = now;
+                lastDecrease = now;
+                LOGGER.warnf("Sender %s is throttled by the provider, reducing rate to %.1f mails/min.", senderKey, ratePerMinute);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        double ratePerMinute() {
+            lock.lock();
+            try {
+                return ratePerMinute;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * ratePerMinute / TimeUnit.MINUTES.toNanos(1));
+            lastRefill = now;
+        }
+    }
+}
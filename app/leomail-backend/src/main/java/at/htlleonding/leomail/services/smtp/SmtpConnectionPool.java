@@ -0,0 +1,319 @@
+package at.htlleonding.leomail.services.smtp;
+
+import at.htlleonding.leomail.model.SenderCredentials;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps authenticated SMTP connections open per sender account, so that a campaign
+ * performs one STARTTLS/AUTH handshake per connection instead of one per recipient.
+ */
+@ApplicationScoped
+public class SmtpConnectionPool {
+
+    private static final Logger LOGGER = Logger.getLogger(SmtpConnectionPool.class);
+
+    @ConfigProperty(name = "jakarta.mail.host")
+    String mailHost;
+
+    @ConfigProperty(name = "jakarta.mail.port")
+    String mailPort;
+
+    @ConfigProperty(name = "leomail.smtp.pool.max-per-sender", defaultValue = "4")
+    int maxPerSender;
+
+    @ConfigProperty(name = "leomail.smtp.pool.max-messages-per-connection", defaultValue = "100")
+    int maxMessagesPerConnection;
+
+    @ConfigProperty(name = "leomail.smtp.pool.idle-timeout", defaultValue = "PT2M")
+    Duration idleTimeout;
+
+    @ConfigProperty(name = "leomail.smtp.pool.validate-after", defaultValue = "PT10S")
+    Duration validateAfter;
+
+    @ConfigProperty(name = "leomail.smtp.pool.lease-timeout", defaultValue = "PT60S")
+    Duration leaseTimeout;
+
+    private final Map<String, SenderPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the mail session of the sender's pool. Messages sent through
+     * {@link #send(SenderCredentials, Message)} should be created with this session.
+     *
+     * @param credentials Credentials of the sending account
+     * @return The shared session for this sender
+     */
+    public Session session(SenderCredentials credentials) {
+        return poolFor(credentials).session;
+    }
+
+    /**
+     * Sends a message over a pooled connection of the sender. If the connection turns out
+     * to be dead (421, timeout, closed socket) before the server accepted the DATA command,
+     * it is discarded and the message is sent once more over a fresh connection. Failures
+     * after DATA are never retried, since the server may already have queued the message.
+     *
+     * @param credentials Credentials of the sending account
+     * @param message     The message to send
+     * @throws MessagingException if sending fails
+     */
+    public void send(SenderCredentials credentials, Message message) throws MessagingException {
+        message.saveChanges();
+        try {
+            sendOnce(credentials, message);
+        } catch (RetryableSendException e) {
+            LOGGER.warnf("SMTP connection for %s failed (%s), reconnecting.", credentials.email, e.getMessage());
+            try {
+                sendOnce(credentials, message);
+            } catch (RetryableSendException retry) {
+                throw retry.failure();
+            }
+        }
+    }
+
+    private void sendOnce(SenderCredentials credentials, Message message) throws MessagingException {
+        SenderPool pool = poolFor(credentials);
+        PooledTransport pooled;
+        try {
+            pooled = pool.lease();
+        } catch (MessagingException e) {
+            // nothing has been sent yet if the connection could not be opened
+            if (isConnectionFailure(e)) {
+                throw new RetryableSendException(e);
+            }
+            throw e;
+        }
+        try {
+            pooled.transport.sendMessage(message, message.getAllRecipients());
+            pooled.messagesSent++;
+        } catch (MessagingException | RuntimeException e) {
+            boolean connectionFailure = isConnectionFailure(e);
+            boolean dataAccepted = pooled.dataAccepted();
+            if (connectionFailure) {
+                pool.discard(pooled);
+            } else {
+                pool.release(pooled);
+            }
+            if (connectionFailure && !dataAccepted) {
+                throw new RetryableSendException(e);
+            }
+            throw e;
+        }
+        pool.release(pooled);
+    }
+
+    /**
+     * Closes idle connections that have not been used within the idle timeout.
+     */
+    @Scheduled(every = "30s")
+    void evictIdleConnections() {
+        long now = System.nanoTime();
+        for (SenderPool pool : pools.values()) {
+            pool.evictIdle(now);
+        }
+    }
+
+    @PreDestroy
+    void closeAll() {
+        for (SenderPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    private SenderPool poolFor(SenderCredentials credentials) {
+        return pools.compute(credentials.email, (email, existing) -> {
+            if (existing != null && existing.password.equals(credentials.password)) {
+                return existing;
+            }
+            if (existing != null) {
+                LOGGER.infof("Credentials of %s changed, closing pooled SMTP connections.", email);
+                existing.close();
+            }
+            return new SenderPool(credentials);
+        });
+    }
+
+    /**
+     * Checks whether the failure was caused by the connection rather than by the message,
+     * so that the message can be retried over a new connection.
+     */
+    static boolean isConnectionFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = SmtpReplies.nextCause(t)) {
+            if (t instanceof SMTPSendFailedException sfe && sfe.getReturnCode() == 421) {
+                return true;
+            }
+            if (t instanceof SocketTimeoutException || t instanceof SocketException) {
+                return true;
+            }
+            if (t instanceof IllegalStateException && "Not connected".equals(t.getMessage())) {
+                return true;
+            }
+            if (t.getMessage() != null && t.getMessage().startsWith("421")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks a failure that happened before the message was handed over, so it is safe to
+     * send the message again over a new connection.
+     */
+    private static final class RetryableSendException extends MessagingException {
+        private final Exception failure;
+
+        RetryableSendException(Exception failure) {
+            super(failure.getMessage(), failure);
+            this.failure = failure;
+        }
+
+        MessagingException failure() {
+            if (failure instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            return (MessagingException) failure;
+        }
+    }
+
+    private static final class PooledTransport {
+        final Transport transport;
+        long lastUsed = System.nanoTime();
+        int messagesSent;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        /**
+         * Whether the server answered the last DATA command with 354, i.e. the failure
+         * happened while the message content was transferred or acknowledged.
+         */
+        boolean dataAccepted() {
+            return transport instanceof SMTPTransport smtp && smtp.getLastReturnCode() == 354;
+        }
+
+        void closeQuietly() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.debugf("Error closing SMTP connection: %s", e.getMessage());
+            }
+        }
+    }
+
+    private final class SenderPool {
+        final String user;
+        final String password;
+        final Session session;
+        final Semaphore permits = new Semaphore(maxPerSender, true);
+        final Deque<PooledTransport> idle = new ConcurrentLinkedDeque<>();
+
+        SenderPool(SenderCredentials credentials) {
+            this.user = credentials.email.replace("students.htl-leonding.ac.at", "htblaleonding.onmicrosoft.com");
+            this.password = credentials.password;
+
+            Properties properties = new Properties();
+            properties.put("mail.smtp.host", mailHost);
+            properties.put("mail.smtp.port", mailPort);
+            properties.put("mail.smtp.auth", "true");
+            properties.put("mail.smtp.starttls.enable", "true");
+            properties.put("mail.smtp.connectiontimeout", "30000");
+            properties.put("mail.smtp.timeout", "60000");
+            this.session = Session.getInstance(properties);
+        }
+
+        PooledTransport lease() throws MessagingException {
+            try {
+                if (!permits.tryAcquire(leaseTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new MessagingException("No SMTP connection available for " + user);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+            }
+            try {
+                PooledTransport pooled;
+                while ((pooled = idle.pollFirst()) != null) {
+                    if (isHealthy(pooled)) {
+                        return pooled;
+                    }
+                    pooled.closeQuietly();
+                }
+                return connect();
+            } catch (MessagingException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        void release(PooledTransport pooled) {
+            if (pooled.messagesSent >= maxMessagesPerConnection) {
+                pooled.closeQuietly();
+            } else {
+                pooled.lastUsed = System.nanoTime();
+                idle.offerFirst(pooled);
+            }
+            permits.release();
+        }
+
+        void discard(PooledTransport pooled) {
+            pooled.closeQuietly();
+            permits.release();
+        }
+
+        void evictIdle(long now) {
+            Iterator<PooledTransport> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                PooledTransport pooled = iterator.next();
+                if (now - pooled.lastUsed > idleTimeout.toNanos() && idle.remove(pooled)) {
+                    pooled.closeQuietly();
+                    LOGGER.debugf("Closed idle SMTP connection of %s.", user);
+                }
+            }
+        }
+
+        void close() {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                pooled.closeQuietly();
+            }
+        }
+
+        private boolean isHealthy(PooledTransport pooled) {
+            if (System.nanoTime() - pooled.lastUsed < validateAfter.toNanos()) {
+                return true;
+            }
+            // SMTPTransport#isConnected issues a NOOP to verify the connection
+            return pooled.transport.isConnected();
+        }
+
+        private PooledTransport connect() throws MessagingException {
+            Transport transport = session.getTransport("smtp");
+            transport.connect(mailHost, Integer.parseInt(mailPort), user, password);
+            LOGGER.debugf("Opened new SMTP connection for %s.", user);
+            return new PooledTransport(transport);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package at.htlleonding.leomail.services.smtp;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.InternetAddress;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for interpreting SMTP errors raised by Jakarta Mail.
+ */
+public final class SmtpReplies {
+
+    private static final Pattern REPLY_CODE = Pattern.compile("^\\s*([2-5]\\d\\d)[\\s-]");
+    private static final Pattern THROTTLING_TEXT = Pattern.compile("throttl|quota|limit|too many", Pattern.CASE_INSENSITIVE);
+
+    private SmtpReplies() {
+    }
+
+    /**
+     * Finds the SMTP reply code in an exception chain.
+     *
+     * @param e The exception thrown while sending
+     * @return The first reply code found, or -1 if the chain contains none
+     */
+    public static int replyCode(Throwable e) {
+        for (Throwable t = e; t != null; t = nextCause(t)) {
+            int code = ownReplyCode(t);
+            if (code > 0) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the provider rejected a message because the sender is sending too fast.
+     * Outlook answers with a session-level 421, 432 or 451 reply mentioning a throttle, quota or
+     * limit (e.g. 432 4.3.2 "sender thread limit exceeded"), or with a SubmissionQuotaExceeded 554.
+     * Replies to single recipients (e.g. 452 4.5.3 too many recipients) do not slow down the sender.
+     *
+     * @param e The exception thrown while sending
+     * @return true if the error is a throttling response
+     */
+    public static boolean isThrottling(Throwable e) {
+        for (Throwable t = e; t != null; t = nextCause(t)) {
+            String message = t.getMessage();
+            if (message == null) {
+                continue;
+            }
+            if (message.contains("SubmissionQuotaExceeded")) {
+                return true;
+            }
+            if (t instanceof SMTPAddressFailedException) {
+                continue;
+            }
+            int code = ownReplyCode(t);
+            if ((code == 421 || code == 432 || code == 451) && THROTTLING_TEXT.matcher(message).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether retrying the message cannot succeed, e.g. because the recipient does not exist.
+     * 5xx replies are permanent, except throttling and authentication failures, which go away
+     * once the provider accepts the sender again or the password has been updated.
+     *
+     * @param e The exception thrown while sending
+     * @return true if the message should not be retried
+     */
+    public static boolean isPermanent(Throwable e) {
+        int code = replyCode(e);
+        if (code < 500 || isAuthenticationFailure(e)) {
+            return false;
+        }
+        return !isThrottling(e);
+    }
+
+    /**
+     * Checks whether the provider rejected the login of the sender.
+     *
+     * @param e The exception thrown while connecting or sending
+     * @return true if the credentials were not accepted
+     */
+    public static boolean isAuthenticationFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = nextCause(t)) {
+            if (t instanceof AuthenticationFailedException) {
+                return true;
+            }
+        }
+        int code = replyCode(e);
+        return code == 530 || code == 534 || code == 535;
+    }
+
+    /**
+     * Finds the exception that lists which recipients were accepted and which were rejected.
+     *
+     * @param e The exception thrown while sending
+     * @return The SendFailedException of the chain, or null
+     */
+    public static SendFailedException sendFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = nextCause(t)) {
+            if (t instanceof SendFailedException sfe) {
+                return sfe;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects the reply code per rejected recipient (lower-case address) of a send failure.
+     *
+     * @param e The send failure
+     * @return Reply code per rejected address
+     */
+    public static Map<String, Integer> rejectedRecipients(SendFailedException e) {
+        Map<String, Integer> codes = new HashMap<>();
+        for (Throwable t = e; t != null; t = nextCause(t)) {
+            if (t instanceof SMTPAddressFailedException afe) {
+                codes.put(plainAddress(afe.getAddress()), afe.getReturnCode());
+            }
+        }
+        if (e.getInvalidAddresses() != null) {
+            for (Address address : e.getInvalidAddresses()) {
+                codes.putIfAbsent(plainAddress(address), 550);
+            }
+        }
+        return codes;
+    }
+
+    public static String plainAddress(Address address) {
+        String value = address instanceof InternetAddress internetAddress ? internetAddress.getAddress() : address.toString();
+        return value.toLowerCase();
+    }
+
+    private static int ownReplyCode(Throwable t) {
+        if (t instanceof SMTPSendFailedException sfe && sfe.getReturnCode() > 0) {
+            return sfe.getReturnCode();
+        }
+        if (t instanceof SMTPAddressFailedException afe && afe.getReturnCode() > 0) {
+            return afe.getReturnCode();
+        }
+        if (t instanceof SMTPSenderFailedException sfe && sfe.getReturnCode() > 0) {
+            return sfe.getReturnCode();
+        }
+        if (t.getMessage() != null) {
+            Matcher matcher = REPLY_CODE.matcher(t.getMessage());
+            if (matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return -1;
+    }
+
+    static Throwable nextCause(Throwable t) {
+        if (t instanceof MessagingException me && me.getNextException() != null && me.getNextException() != t) {
+            return me.getNextException();
+        }
+        return t.getCause() != t ? t.getCause() : null;
+    }
+}
@@ -0,0 +1,202 @@
+package at.htlleonding.leomail.websockets;
+
+import at.htlleonding.leomail.model.dto.template.SendJobStatusDTO;
+import at.htlleonding.leomail.repositories.MailRepository;
+import at.htlleonding.leomail.services.PermissionService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.oidc.AccessTokenCredential;
+import io.quarkus.oidc.TenantIdentityProvider;
+import io.quarkus.security.identity.SecurityIdentity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.websocket.*;
+import jakarta.websocket.server.PathParam;
+import jakarta.websocket.server.ServerEndpoint;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streamt den Fortschritt einer Kampagne (SentTemplate) an abonnierte Clients.
+ * Änderungen werden nur vorgemerkt und in festen Intervallen zusammengefasst versendet;
+ * solange ein Client die letzte Nachricht noch nicht abgenommen hat, wird er übersprungen.
+ * <p>
+ * Browser können beim Handshake keinen Authorization-Header setzen, daher wird das Access-Token als
+ * Query-Parameter {@code token} übergeben. Abonnieren darf nur der Absender oder ein Mitglied des Projekts.
+ */
+@ServerEndpoint("/ws/campaign-progress/{sentTemplateId}")
+@ApplicationScoped
+public class CampaignProgressWebSocket {
+
+    private static final Logger LOGGER = Logger.getLogger(CampaignProgressWebSocket.class);
+    private static final String SEND_IN_FLIGHT = "leomail.sendInFlight";
+
+    @Inject
+    MailRepository mailRepository;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    TenantIdentityProvider identityProvider;
+
+    @Inject
+    PermissionService permissionService;
+
+    @ConfigProperty(name = "leomail.progress.flush-interval", defaultValue = "PT0.25S")
+    Duration flushInterval;
+
+    private final Map<Long, Set<Session>> subscribers = new ConcurrentHashMap<>();
+    private final Set<Long> changedCampaigns = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService flusher;
+    private ExecutorService authorizer;
+
+    @PostConstruct
+    void init() {
+        // Token-Prüfung und Datenbankzugriff blockieren, daher nicht auf dem IO-Thread des Handshakes
+        authorizer = Executors.newVirtualThreadPerTaskExecutor();
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("leomail-progress").daemon().factory());
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdownNow();
+        authorizer.shutdownNow();
+    }
+
+    @OnOpen
+    public void onOpen(Session session, @PathParam("sentTemplateId") Long sentTemplateId) {
+        List<String> tokens = session.getRequestParameterMap().get("token");
+        String token = tokens == null || tokens.isEmpty() ? null : tokens.get(0);
+        authorizer.execute(() -> subscribe(session, sentTemplateId, token));
+    }
+
+    @OnClose
+    public void onClose(Session session, @PathParam("sentTemplateId") Long sentTemplateId) {
+        unsubscribe(session, sentTemplateId);
+    }
+
+    @OnError
+    public void onError(Session session, @PathParam("sentTemplateId") Long sentTemplateId, Throwable throwable) {
+        LOGGER.debugf("WebSocket-Fehler bei Session %s: %s", session.getId(), throwable.getMessage());
+        unsubscribe(session, sentTemplateId);
+    }
+
+    /**
+     * Merkt eine Kampagne für das nächste Update vor. Blockiert nie, daher auch aus dem Versand aufrufbar.
+     *
+     * @param sentTemplateId ID des SentTemplates
+     */
+    public void publish(Long sentTemplateId) {
+        if (subscribers.containsKey(sentTemplateId)) {
+            changedCampaigns.add(sentTemplateId);
+        }
+    }
+
+    private void subscribe(Session session, Long sentTemplateId, String token) {
+        String userId = authenticate(session, token);
+        if (userId == null || !permissionService.hasPermissionForSentTemplate(sentTemplateId, userId)) {
+            closeQuietly(session, CloseReason.CloseCodes.VIOLATED_POLICY, "Zugriff verweigert");
+            return;
+        }
+        session.getUserProperties().put(SEND_IN_FLIGHT, new AtomicBoolean(false));
+        subscribers.computeIfAbsent(sentTemplateId, id -> ConcurrentHashMap.newKeySet()).add(session);
+        if (!session.isOpen()) {
+            // während der Prüfung geschlossen: onClose kam vor der Anmeldung
+            unsubscribe(session, sentTemplateId);
+            return;
+        }
+        // neue Abonnenten bekommen sofort den aktuellen Stand
+        changedCampaigns.add(sentTemplateId);
+    }
+
+    /**
+     * Prüft das Access-Token wie bei REST-Aufrufen über OIDC.
+     *
+     * @return ID des Nutzers oder null, wenn das Token fehlt oder ungültig ist
+     */
+    private String authenticate(Session session, String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            SecurityIdentity identity = identityProvider.authenticate(new AccessTokenCredential(token))
+                    .await().atMost(Duration.ofSeconds(10));
+            return identity.getPrincipal() instanceof JsonWebToken jwt ? jwt.getClaim("sub") : null;
+        } catch (Exception e) {
+            LOGGER.debugf("Ungültiges Token bei Session %s: %s", session.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void unsubscribe(Session session, Long sentTemplateId) {
+        subscribers.computeIfPresent(sentTemplateId, (id, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    private void flush() {
+        for (Long sentTemplateId : changedCampaigns) {
+            changedCampaigns.remove(sentTemplateId);
+            Set<Session> sessions = subscribers.get(sentTemplateId);
+            if (sessions == null) {
+                continue;
+            }
+            try {
+                SendJobStatusDTO status = mailRepository.getJobStatus(sentTemplateId);
+                String message = objectMapper.writeValueAsString(status);
+                for (Session session : sessions) {
+                    if (!send(session, message)) {
+                        // Client ist noch mit der letzten Nachricht beschäftigt: beim nächsten Durchlauf erneut versuchen
+                        changedCampaigns.add(sentTemplateId);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                sessions.forEach(session -> closeQuietly(session, CloseReason.CloseCodes.CANNOT_ACCEPT, "Kampagne nicht gefunden"));
+                subscribers.remove(sentTemplateId);
+            } catch (Exception e) {
+                LOGGER.errorf("Fehler beim Senden des Fortschritts von SentTemplate ID %d: %s", sentTemplateId, e.getMessage());
+            }
+        }
+    }
+
+    private boolean send(Session session, String message) {
+        if (!session.isOpen()) {
+            return true;
+        }
+        AtomicBoolean inFlight = (AtomicBoolean) session.getUserProperties().get(SEND_IN_FLIGHT);
+        if (!inFlight.compareAndSet(false, true)) {
+            return false;
+        }
+        session.getAsyncRemote().sendText(message, result -> {
+            inFlight.set(false);
+            if (!result.isOK()) {
+                LOGGER.debugf("Senden an Session %s fehlgeschlagen: %s", session.getId(), result.getException().getMessage());
+            }
+        });
+        return true;
+    }
+
+    private void closeQuietly(Session session, CloseReason.CloseCode code, String reason) {
+        try {
+            session.close(new CloseReason(code, reason));
+        } catch (Exception e) {
+            LOGGER.debugf("Session %s konnte nicht geschlossen werden: %s", session.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package at.htlleonding.leomail.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutgoingMailTest {
+
+    @Test
+    void bccBatchesSplitsRecipientsInOrder() {
+        List<OutgoingMail> batches = OutgoingMail.bccBatches(
+                List.of(1L, 2L, 3L, 4L, 5L),
+                List.of("a@example.com", "b@example.com", "c@example.com", "d@example.com", "e@example.com"),
+                2, "Subject", "Body");
+
+        assertEquals(3, batches.size());
+        assertEquals(List.of(1L, 2L), batches.get(0).sentMailIds());
+        assertEquals(List.of("c@example.com", "d@example.com"), batches.get(1).recipients());
+        assertEquals(List.of(5L), batches.get(2).sentMailIds());
+        assertEquals(List.of("e@example.com"), batches.get(2).recipients());
+        for (OutgoingMail batch : batches) {
+            assertTrue(batch.bcc());
+            assertEquals("Subject", batch.subject());
+            assertEquals("Body", batch.content());
+        }
+    }
+
+    @Test
+    void bccBatchesFitIntoOneMessage() {
+        List<OutgoingMail> batches = OutgoingMail.bccBatches(List.of(1L, 2L), List.of("a@example.com", "b@example.com"), 50, "Subject", "Body");
+
+        assertEquals(1, batches.size());
+        assertEquals(List.of(1L, 2L), batches.get(0).sentMailIds());
+    }
+}
@@ -0,0 +1,192 @@
+package at.htlleonding.leomail.repositories;
+
+import at.htlleonding.leomail.entities.NaturalContact;
+import at.htlleonding.leomail.entities.SentMail;
+import at.htlleonding.leomail.entities.SentTemplate;
+import at.htlleonding.leomail.entities.Template;
+import at.htlleonding.leomail.model.DispatchResult;
+import at.htlleonding.leomail.model.MailType;
+import at.htlleonding.leomail.model.enums.DeliveryStatus;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+class OutboxRepositoryTest {
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    // leases created with this duration are already expired when the claim commits
+    private static final Duration EXPIRED_LEASE = Duration.ofSeconds(-1);
+    // leomail.outbox.max-attempts
+    private static final int MAX_ATTEMPTS = 5;
+
+    @Inject
+    OutboxRepository outboxRepository;
+
+    @BeforeEach
+    void clearOutbox() {
+        QuarkusTransaction.requiringNew().run(() -> {
+            SentMail.deleteAll();
+            SentTemplate.deleteAll();
+        });
+    }
+
+    @Test
+    void claimCompleteAndRetry() {
+        List<Long> ids = enqueue(2);
+        Long sentId = ids.get(0);
+        Long failedId = ids.get(1);
+
+        assertEquals(ids, outboxRepository.claim("worker-1", 10, LEASE));
+        assertTrue(outboxRepository.claim("worker-2", 10, LEASE).isEmpty(), "leased mails must not be claimed twice");
+        assertEquals(DeliveryStatus.SENDING, mail(sentId).status);
+
+        outboxRepository.complete("worker-1", List.of(
+                new DispatchResult(sentId, true, false, null),
+                new DispatchResult(failedId, false, false, "451 try again later")));
+
+        SentMail sent = mail(sentId);
+        assertEquals(DeliveryStatus.SENT, sent.status);
+        assertEquals(1, sent.attempts);
+        assertNull(sent.leaseOwner);
+
+        SentMail failed = mail(failedId);
+        assertEquals(DeliveryStatus.RETRY_WAIT, failed.status);
+        assertEquals(1, failed.attempts);
+        assertEquals("451 try again later", failed.lastSmtpReply);
+        assertNull(failed.leaseOwner);
+        assertTrue(failed.nextAttemptAt.isAfter(LocalDateTime.now()));
+
+        assertTrue(outboxRepository.claim("worker-1", 10, LEASE).isEmpty(), "retries wait for their backoff");
+        QuarkusTransaction.requiringNew().run(() ->
+                SentMail.update("nextAttemptAt = ?1 where id = ?2", LocalDateTime.now().minusSeconds(1), failedId));
+        assertEquals(List.of(failedId), outboxRepository.claim("worker-1", 10, LEASE));
+    }
+
+    @Test
+    void permanentFailureIsNotRetried() {
+        Long id = enqueue(1).get(0);
+        outboxRepository.claim("worker-1", 10, LEASE);
+
+        outboxRepository.complete("worker-1", List.of(new DispatchResult(id, false, true, "550 mailbox unavailable")));
+
+        assertEquals(DeliveryStatus.FAILED_PERMANENT, mail(id).status);
+        assertTrue(outboxRepository.claim("worker-1", 10, LEASE).isEmpty());
+    }
+
+    @Test
+    void expiredLeaseIsTakenOver() {
+        Long id = enqueue(1).get(0);
+        outboxRepository.claim("worker-1", 10, EXPIRED_LEASE);
+
+        assertEquals(List.of(id), outboxRepository.claim("worker-2", 10, LEASE));
+        assertEquals("worker-2", mail(id).leaseOwner);
+
+        // a late failure of the previous owner must not touch the row taken over by worker-2
+        outboxRepository.complete("worker-1", List.of(new DispatchResult(id, false, false, "timeout")));
+        SentMail mail = mail(id);
+        assertEquals(DeliveryStatus.SENDING, mail.status);
+        assertEquals("worker-2", mail.leaseOwner);
+        assertEquals(0, mail.attempts);
+    }
+
+    @Test
+    void sentMailIsCompletedAfterLostLease() {
+        Long id = enqueue(1).get(0);
+        outboxRepository.claim("worker-1", 10, EXPIRED_LEASE);
+        outboxRepository.claim("worker-2", 10, LEASE);
+
+        // the server accepted the message of worker-1, so it must not be sent again by worker-2
+        outboxRepository.complete("worker-1", List.of(new DispatchResult(id, true, false, null)));
+
+        SentMail mail = mail(id);
+        assertEquals(DeliveryStatus.SENT, mail.status);
+        assertNull(mail.leaseOwner);
+        assertTrue(outboxRepository.claim("worker-3", 10, LEASE).isEmpty());
+    }
+
+    @Test
+    void renewLeaseKeepsMailsOfTheOwner() {
+        Long id = enqueue(1).get(0);
+        outboxRepository.claim("worker-1", 10, EXPIRED_LEASE);
+
+        assertEquals(0, outboxRepository.renewLease("worker-2", List.of(id), LEASE));
+        assertEquals(1, outboxRepository.renewLease("worker-1", List.of(id), LEASE));
+
+        assertTrue(mail(id).leaseUntil.isAfter(LocalDateTime.now()));
+        assertTrue(outboxRepository.claim("worker-2", 10, LEASE).isEmpty());
+    }
+
+    @Test
+    void undecryptableSenderPasswordCountsAsFailedAttempt() {
+        String senderId = QuarkusTransaction.requiringNew().call(() -> {
+            NaturalContact sender = new NaturalContact();
+            sender.firstName = "Sender";
+            sender.lastName = "Contact";
+            sender.mailAddress = "sender-" + UUID.randomUUID() + "@example.com";
+            // well-formed, but not encrypted with the current key
+            sender.encryptedOutlookPassword = Base64.getEncoder().encodeToString(new byte[40]);
+            sender.persist();
+            return sender.id;
+        });
+        Long id = enqueue(1, senderId).get(0);
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            assertEquals(List.of(id), outboxRepository.claim("worker-1", 10, LEASE));
+            assertTrue(outboxRepository.loadBatch(List.of(id)).isEmpty());
+
+            SentMail mail = mail(id);
+            assertEquals(attempt, mail.attempts);
+            assertNull(mail.leaseOwner);
+            QuarkusTransaction.requiringNew().run(() ->
+                    SentMail.update("nextAttemptAt = ?1 where id = ?2", LocalDateTime.now().minusSeconds(1), id));
+        }
+
+        assertEquals(DeliveryStatus.FAILED_PERMANENT, mail(id).status);
+        assertTrue(outboxRepository.claim("worker-1", 10, LEASE).isEmpty());
+    }
+
+    private List<Long> enqueue(int count) {
+        return enqueue(count, "sender-" + UUID.randomUUID());
+    }
+
+    private List<Long> enqueue(int count, String senderId) {
+        return QuarkusTransaction.requiringNew().call(() -> {
+            String suffix = UUID.randomUUID().toString();
+
+            Template template = new Template("outbox-" + suffix, "Headline", "Hello", false, null, null);
+            template.persist();
+            SentTemplate sentTemplate = new SentTemplate(template, null, null, MailType.PERSONAL, senderId);
+            sentTemplate.persist();
+
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                NaturalContact contact = new NaturalContact();
+                contact.firstName = "First";
+                contact.lastName = "Last " + i;
+                contact.mailAddress = i + "-" + suffix + "@example.com";
+                contact.persist();
+
+                SentMail mail = new SentMail(contact, sentTemplate, "Hello " + i);
+                mail.persist();
+                ids.add(mail.id);
+            }
+            return ids;
+        });
+    }
+
+    private SentMail mail(Long id) {
+        return QuarkusTransaction.requiringNew().call(() -> SentMail.findById(id));
+    }
+}
@@ -0,0 +1,146 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.entities.CompanyContact;
+import at.htlleonding.leomail.entities.NaturalContact;
+import at.htlleonding.leomail.model.dto.contacts.ContactImportErrorDTO;
+import at.htlleonding.leomail.model.dto.contacts.ContactImportResultDTO;
+import at.htlleonding.leomail.model.enums.Gender;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// runs with leomail.contacts.import.batch-size=2, so every import spans several batches
+@QuarkusTest
+class ContactImportServiceTest {
+
+    @Inject
+    ContactImportService contactImportService;
+
+    private String domain;
+
+    @BeforeEach
+    void newDomain() {
+        domain = "@" + UUID.randomUUID() + ".example.com";
+    }
+
+    @Test
+    void importsNaturalContactsInBatches() throws IOException {
+        ContactImportResultDTO result = contactImportService.importNaturalContacts(csv(
+                "FirstName;LastName;MailAddress;Gender;Company",
+                "Jane;Doe;jane" + domain + ";w;Acme",
+                "John;Doe;john" + domain + ";;",
+                "\"Anna; Maria\";Muster;anna" + domain + ";W;"));
+
+        assertEquals(3, result.rows());
+        assertEquals(3, result.imported());
+        assertTrue(result.errors().isEmpty());
+
+        NaturalContact jane = natural("jane" + domain);
+        assertEquals("Jane", jane.firstName);
+        assertEquals(Gender.W, jane.gender);
+        assertEquals("Acme", jane.company);
+        NaturalContact john = natural("john" + domain);
+        assertNull(john.gender);
+        assertNull(john.company);
+        assertEquals("Anna; Maria", natural("anna" + domain).firstName);
+    }
+
+    @Test
+    void invalidAndDuplicateRowsAreReported() throws IOException {
+        ContactImportResultDTO result = contactImportService.importNaturalContacts(csv(
+                "firstName,lastName,mailAddress,gender",
+                "Jane,Doe,jane" + domain + ",W",
+                ",Doe,nofirst" + domain + ",",
+                "John,Doe,not-a-mail,",
+                "Max,Muster,max" + domain + ",X",
+                "Jane,Again,jane" + domain + ",",
+                "Eva,Short"));
+
+        assertEquals(6, result.rows());
+        assertEquals(1, result.imported());
+        assertEquals(List.of(3L, 4L, 5L, 6L, 7L), result.errors().stream().map(ContactImportErrorDTO::line).toList());
+        assertEquals("firstName is missing", result.errors().get(0).message());
+        assertEquals("Invalid mail address", result.errors().get(1).message());
+        assertEquals("gender must be M or W", result.errors().get(2).message());
+        assertEquals("Duplicate mail address, already in line 2", result.errors().get(3).message());
+        assertEquals("Doe", natural("jane" + domain).lastName);
+    }
+
+    @Test
+    void existingMailAddressesAreNotOverwritten() throws IOException {
+        QuarkusTransaction.requiringNew().run(() -> {
+            NaturalContact existing = new NaturalContact();
+            existing.firstName = "Existing";
+            existing.lastName = "Contact";
+            existing.mailAddress = "existing" + domain;
+            existing.persist();
+        });
+
+        ContactImportResultDTO result = contactImportService.importNaturalContacts(csv(
+                "firstName,lastName,mailAddress",
+                "New,Contact,new" + domain,
+                "Other,Name,existing" + domain));
+
+        assertEquals(1, result.imported());
+        assertEquals(List.of(new ContactImportErrorDTO(3, "existing" + domain, "Mail address already exists")), result.errors());
+        assertEquals("Existing", natural("existing" + domain).firstName);
+        assertNotNull(natural("new" + domain));
+    }
+
+    @Test
+    void malformedRecordStopsTheImport() throws IOException {
+        ContactImportResultDTO result = contactImportService.importNaturalContacts(csv(
+                "firstName,lastName,mailAddress",
+                "A,One,a" + domain,
+                "B,Two,b" + domain,
+                "C,Three,c" + domain,
+                "\"D,Four,d" + domain,
+                "E,Five,e" + domain));
+
+        assertEquals(4, result.rows());
+        assertEquals(3, result.imported());
+        assertEquals(1, result.errors().size());
+        assertEquals(5, result.errors().get(0).line());
+        assertNotNull(natural("c" + domain));
+        assertNull(natural("e" + domain));
+    }
+
+    @Test
+    void importsCompanyContacts() throws IOException {
+        ContactImportResultDTO result = contactImportService.importCompanyContacts(csv(
+                "\uFEFFcompanyName,mailAddress",
+                "\"Acme, Inc.\",office" + domain));
+
+        assertEquals(1, result.imported());
+        CompanyContact company = QuarkusTransaction.requiringNew().call(() ->
+                CompanyContact.<CompanyContact>find("mailAddress", "office" + domain).firstResult());
+        assertEquals("Acme, Inc.", company.companyName);
+    }
+
+    @Test
+    void missingRequiredColumnIsRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () ->
+                contactImportService.importCompanyContacts(csv("companyName,phone", "Acme,123")));
+        assertEquals("Missing CSV columns: mailAddress", e.getMessage());
+    }
+
+    private NaturalContact natural(String mailAddress) {
+        return QuarkusTransaction.requiringNew().call(() ->
+                NaturalContact.<NaturalContact>find("mailAddress", mailAddress).firstResult());
+    }
+
+    private static InputStream csv(String... lines) {
+        return new ByteArrayInputStream((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,89 @@
+package at.htlleonding.leomail.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvReaderTest {
+
+    @Test
+    void quotedFields() throws IOException {
+        CsvReader reader = reader("firstName,lastName\n\"Doe, Jane\",\"say \"\"hi\"\"\"\n");
+
+        assertEquals(List.of("firstName", "lastName"), reader.readHeader());
+        assertEquals(List.of("Doe, Jane", "say \"hi\""), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    void embeddedNewlineKeepsLineNumbers() throws IOException {
+        CsvReader reader = reader("a,b\n\"first\nsecond\",x\ny,z\n");
+        reader.readHeader();
+
+        assertEquals(List.of("first\nsecond", "x"), reader.readRecord());
+        assertEquals(2, reader.recordLine());
+        assertEquals(List.of("y", "z"), reader.readRecord());
+        assertEquals(4, reader.recordLine());
+    }
+
+    @Test
+    void byteOrderMarkIsSkipped() throws IOException {
+        CsvReader reader = reader("\uFEFFmailAddress,firstName\na@example.com,Jane\n");
+
+        assertEquals(List.of("mailAddress", "firstName"), reader.readHeader());
+        assertEquals(List.of("a@example.com", "Jane"), reader.readRecord());
+    }
+
+    @Test
+    void semicolonIsDetectedFromTheHeader() throws IOException {
+        CsvReader reader = reader("companyName;mailAddress\nAcme, Inc.;office@acme.com\n");
+
+        assertEquals(List.of("companyName", "mailAddress"), reader.readHeader());
+        assertEquals(List.of("Acme, Inc.", "office@acme.com"), reader.readRecord());
+    }
+
+    @Test
+    void crlfLineEndingsAndEmptyLines() throws IOException {
+        CsvReader reader = reader("a,b\r\n1,2\r\n\r\n3,\r\n");
+        reader.readHeader();
+
+        assertEquals(List.of("1", "2"), reader.readRecord());
+        assertEquals(2, reader.recordLine());
+        assertEquals(List.of("3", ""), reader.readRecord());
+        assertEquals(4, reader.recordLine());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    void lastRecordWithoutLineBreak() throws IOException {
+        CsvReader reader = reader("a,b\n1,2");
+        reader.readHeader();
+
+        assertEquals(List.of("1", "2"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    void unterminatedQuoteIsRejected() throws IOException {
+        CsvReader reader = reader("a,b\n1,2\n\"open,3\n4,5\n");
+        reader.readHeader();
+        reader.readRecord();
+
+        assertThrows(IllegalArgumentException.class, reader::readRecord);
+        assertEquals(3, reader.recordLine());
+    }
+
+    @Test
+    void emptyInput() throws IOException {
+        assertNull(reader("").readHeader());
+    }
+
+    private static CsvReader reader(String csv) {
+        return new CsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,90 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.model.SenderCredentials;
+import at.htlleonding.leomail.services.smtp.SmtpConnectionPool;
+import com.sun.mail.smtp.SMTPMessage;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailServiceTest {
+
+    private static final SenderCredentials SENDER = new SenderCredentials("sender@example.com", "secret");
+
+    private CapturingPool pool;
+    private MailService mailService;
+
+    @BeforeEach
+    void setUp() {
+        pool = new CapturingPool();
+        mailService = new MailService();
+        mailService.smtpConnectionPool = pool;
+    }
+
+    @Test
+    void bccMailDoesNotAddressTheSender() throws Exception {
+        mailService.sendBccEmail(SENDER, List.of("a@example.com", "b@example.com"), "Subject", "<p>Hi</p>", List.of());
+
+        Message message = pool.sent.get(0);
+        assertArrayEquals(new String[]{"undisclosed-recipients:;"}, message.getHeader("To"));
+        assertEquals(List.of("a@example.com", "b@example.com"), addresses(message.getRecipients(Message.RecipientType.BCC)));
+        assertEquals(List.of("a@example.com", "b@example.com"), deliveryAddresses(message));
+        assertEquals(List.of("sender@example.com"), addresses(message.getFrom()));
+    }
+
+    @Test
+    void onlyBccMailsAreSentPartially() throws Exception {
+        mailService.sendBccEmail(SENDER, List.of("a@example.com", "b@example.com"), "Subject", "<p>Hi</p>", List.of());
+        mailService.sendEmail(SENDER, "c@example.com", "Subject", "<p>Hi</p>", List.of());
+
+        assertTrue(pool.sent.get(0) instanceof SMTPMessage bcc && bcc.getSendPartial());
+        Message individual = pool.sent.get(1);
+        assertFalse(individual instanceof SMTPMessage single && single.getSendPartial());
+        assertNull(pool.session.getProperty("mail.smtp.sendpartial"));
+        assertEquals(List.of("c@example.com"), addresses(individual.getRecipients(Message.RecipientType.TO)));
+    }
+
+    // recipients the transport actually sends RCPT TO for; empty groups are dropped
+    private static List<String> deliveryAddresses(Message message) throws Exception {
+        List<String> result = new ArrayList<>();
+        for (Address address : message.getAllRecipients()) {
+            InternetAddress internetAddress = (InternetAddress) address;
+            if (internetAddress.isGroup()) {
+                Arrays.stream(internetAddress.getGroup(false)).map(InternetAddress::getAddress).forEach(result::add);
+            } else {
+                result.add(internetAddress.getAddress());
+            }
+        }
+        return result;
+    }
+
+    private static List<String> addresses(Address[] addresses) {
+        return Arrays.stream(addresses).map(address -> ((InternetAddress) address).getAddress()).toList();
+    }
+
+    private static final class CapturingPool extends SmtpConnectionPool {
+        final Session session = Session.getInstance(new Properties());
+        final List<MimeMessage> sent = new ArrayList<>();
+
+        @Override
+        public Session session(SenderCredentials credentials) {
+            return session;
+        }
+
+        @Override
+        public void send(SenderCredentials credentials, Message message) {
+            sent.add((MimeMessage) message);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.entities.Template;
+import at.htlleonding.leomail.entities.TemplateGreeting;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+class TemplateBuilderTest {
+
+    @Inject
+    TemplateBuilder templateBuilder;
+
+    @Test
+    void templateWithoutContactDataIsShared() {
+        assertEquals(Optional.of("Hallo<br><p>Unser Newsletter</p>"), renderShared("Hallo", "<p>Unser Newsletter</p>"));
+    }
+
+    @Test
+    void unknownVariablesRenderEmptyForEveryone() {
+        assertEquals(Optional.of("Hallo<br><p>Text </p>"), renderShared("Hallo", "<p>Text {unknownVariable}</p>"));
+    }
+
+    @Test
+    void contactFieldInContentIsPersonalized() {
+        assertTrue(renderShared("Hallo", "<p>Liebe/r {firstName}</p>").isEmpty());
+    }
+
+    @Test
+    void contactFieldInGreetingIsPersonalized() {
+        assertTrue(renderShared("Hallo {lastName}", "<p>Text</p>").isEmpty());
+    }
+
+    @Test
+    void contactFieldThatOnlySelectsTextIsPersonalized() {
+        // renders the same for every non-empty company, but differently for contacts without one
+        assertTrue(renderShared("Hallo", "{#if company}<p>{company}</p>{/if}<p>Text</p>").isEmpty());
+    }
+
+    @Test
+    void genderDependentGreetingIsPersonalized() {
+        assertTrue(renderShared("{#if sex == 'M'}Sehr geehrter Herr{#else}Sehr geehrte Frau{/if}", "<p>Text</p>").isEmpty());
+    }
+
+    @Test
+    void contactFieldsInPersonalizedSectionsAreShared() {
+        // structure of the seeded greetings: contact data is only read when the campaign is personalized
+        String greeting = """
+                {#if personalized}
+                {#if sex == "M"}Sehr geehrter Herr {prefixTitle} {lastname} {suffixTitle},{/if}
+                {#if sex == "W"}Sehr geehrte Frau {prefixTitle} {lastname} {suffixTitle},{/if}
+                {#if sex != "M" && sex != "W"}Sehr geehrte {prefixTitle} {lastname} {suffixTitle},{/if}
+                {#else}
+                Sehr geehrte Damen und Herren,
+                {/if}""";
+
+        assertEquals(Optional.of("Sehr geehrte Damen und Herren,\n<br><p>Unser Newsletter</p>"), renderShared(greeting, "<p>Unser Newsletter</p>"));
+    }
+
+    private Optional<String> renderShared(String greeting, String content) {
+        return QuarkusTransaction.requiringNew().call(() -> {
+            TemplateGreeting templateGreeting = new TemplateGreeting();
+            templateGreeting.templateString = greeting;
+            templateGreeting.persist();
+            Template template = new Template("shared-" + UUID.randomUUID(), "Headline", content, false, null, templateGreeting);
+            template.persist();
+            return templateBuilder.renderShared(template.id);
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package at.htlleonding.leomail.services.dispatch;
+
+import at.htlleonding.leomail.model.DispatchResult;
+import at.htlleonding.leomail.model.OutgoingMail;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailDispatcherTest {
+
+    private static final OutgoingMail BCC = OutgoingMail.bcc(List.of(1L, 2L, 3L),
+            List.of("Sent@example.com", "unknown@example.com", "busy@example.com"), "Subject", "Body");
+
+    @Test
+    void partialDeliveryMapsResultsPerRecipient() throws AddressException {
+        InternetAddress unknown = new InternetAddress("unknown@example.com");
+        InternetAddress busy = new InternetAddress("busy@example.com");
+        SMTPAddressFailedException unknownRejected = new SMTPAddressFailedException(unknown, "RCPT TO", 550, "550 5.1.1 User unknown");
+        SMTPAddressFailedException busyRejected = new SMTPAddressFailedException(busy, "RCPT TO", 450, "450 4.2.1 Mailbox busy");
+        unknownRejected.setNextException(busyRejected);
+        SMTPSendFailedException failure = new SMTPSendFailedException("DATA", 250, "250 2.0.0 OK", unknownRejected,
+                new Address[]{new InternetAddress("sent@example.com")}, null, new Address[]{unknown, busy});
+
+        List<DispatchResult> results = MailDispatcher.failureResults(BCC, failure);
+
+        assertEquals(List.of(
+                new DispatchResult(1L, true, false, null),
+                new DispatchResult(2L, false, true, "550 recipient rejected"),
+                new DispatchResult(3L, false, false, "450 recipient rejected")), results);
+    }
+
+    @Test
+    void failureWithoutDeliveryFailsAllRecipients() {
+        MessagingException failure = new MessagingException("554 5.6.0 Message rejected");
+
+        List<DispatchResult> results = MailDispatcher.failureResults(BCC, failure);
+
+        assertEquals(3, results.size());
+        assertTrue(results.stream().noneMatch(DispatchResult::sent));
+        assertTrue(results.stream().allMatch(DispatchResult::permanent));
+    }
+
+    @Test
+    void individualMailIgnoresRecipientLists() throws AddressException {
+        OutgoingMail mail = OutgoingMail.individual(7L, "unknown@example.com", "Subject", "Body");
+        InternetAddress unknown = new InternetAddress("unknown@example.com");
+        SendFailedException failure = new SendFailedException("Invalid Addresses",
+                new SMTPAddressFailedException(unknown, "RCPT TO", 451, "451 4.4.0 Try again later"),
+                new Address[0], null, new Address[]{unknown});
+
+        assertEquals(List.of(new DispatchResult(7L, false, false, "Invalid Addresses")),
+                MailDispatcher.failureResults(mail, failure));
+    }
+}
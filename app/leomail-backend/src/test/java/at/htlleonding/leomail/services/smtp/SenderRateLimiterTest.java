@@ -0,0 +1,95 @@
+package at.htlleonding.leomail.services.smtp;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SenderRateLimiterTest {
+
+    private static final String SENDER = "sender@example.com";
+
+    private SenderRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new SenderRateLimiter();
+        limiter.initialPerMinute = 30;
+        limiter.minPerMinute = 2;
+        limiter.maxPerMinute = 40;
+        limiter.increasePerMinute = 5;
+        limiter.increaseInterval = Duration.ZERO;
+        limiter.burst = 5;
+        limiter.decreaseCoalesceWindow = Duration.ZERO;
+    }
+
+    @Test
+    void throttlingHalvesTheRate() {
+        limiter.onThrottled(SENDER);
+        assertEquals(15.0, rate());
+
+        limiter.onThrottled(SENDER);
+        assertEquals(7.5, rate());
+    }
+
+    @Test
+    void rateRecoversAfterThrottling() {
+        limiter.onThrottled(SENDER);
+        limiter.onSuccess(SENDER);
+        limiter.onSuccess(SENDER);
+
+        assertEquals(25.0, rate());
+    }
+
+    @Test
+    void rateDoesNotDropBelowTheFloor() {
+        for (int i = 0; i < 10; i++) {
+            limiter.onThrottled(SENDER);
+        }
+        assertEquals(2.0, rate());
+    }
+
+    @Test
+    void rateDoesNotExceedTheCeiling() {
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess(SENDER);
+        }
+        assertEquals(40.0, rate());
+    }
+
+    @Test
+    void throttlingWithinTheWindowCountsOnce() {
+        limiter.decreaseCoalesceWindow = Duration.ofMinutes(1);
+
+        limiter.onThrottled(SENDER);
+        limiter.onThrottled(SENDER);
+        limiter.onThrottled(SENDER);
+
+        assertEquals(15.0, rate());
+    }
+
+    @Test
+    void increaseWaitsForTheInterval() {
+        limiter.increaseInterval = Duration.ofMinutes(1);
+
+        limiter.onSuccess(SENDER);
+        limiter.onSuccess(SENDER);
+
+        assertEquals(30.0, rate());
+    }
+
+    @Test
+    void sendersAreLimitedIndependently() {
+        limiter.onThrottled(SENDER);
+
+        limiter.onSuccess("other@example.com");
+        assertEquals(35.0, limiter.currentRates().get("other@example.com"));
+        assertEquals(15.0, rate());
+    }
+
+    private double rate() {
+        return limiter.currentRates().get(SENDER);
+    }
+}
@@ -0,0 +1,81 @@
+package at.htlleonding.leomail.services.smtp;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmtpRepliesTest {
+
+    @Test
+    void sessionThrottlingRepliesAreThrottling() throws AddressException {
+        assertTrue(SmtpReplies.isThrottling(dataFailure(432, "432 4.3.2 STOREDRV.ClientSubmit; sender thread limit exceeded")));
+        assertTrue(SmtpReplies.isThrottling(dataFailure(421, "421 4.7.0 Too many connections, throttled")));
+        assertTrue(SmtpReplies.isThrottling(new SMTPSenderFailedException(new InternetAddress("sender@example.com"),
+                "MAIL FROM", 451, "451 4.7.500 Server busy, rate limit reached")));
+        assertTrue(SmtpReplies.isThrottling(new MessagingException("421 4.7.0 Message submission quota exceeded")));
+    }
+
+    @Test
+    void submissionQuotaExceededIsThrottlingAndNotPermanent() {
+        MessagingException e = new MessagingException("Send failed",
+                dataFailure(554, "554 5.2.0 STOREDRV.Submission.Exception:SubmissionQuotaExceededException"));
+
+        assertTrue(SmtpReplies.isThrottling(e));
+        assertFalse(SmtpReplies.isPermanent(e));
+    }
+
+    @Test
+    void otherTransientRepliesAreNotThrottling() throws AddressException {
+        assertFalse(SmtpReplies.isThrottling(dataFailure(451, "451 4.3.0 Mail server temporarily rejected message")));
+        assertFalse(SmtpReplies.isThrottling(dataFailure(450, "450 4.2.1 Mailbox busy, limit exceeded")));
+        assertFalse(SmtpReplies.isThrottling(new MessagingException("Exception reading response", new SocketTimeoutException("Read timed out"))));
+        // too many recipients concerns one RCPT TO, not the rate of the sender
+        assertFalse(SmtpReplies.isThrottling(recipientFailure("a@example.com", 452, "452 4.5.3 Too many recipients")));
+    }
+
+    @Test
+    void recipientReplies() throws AddressException {
+        SendFailedException temporary = recipientFailure("a@example.com", 450, "450 4.2.0 Mailbox temporarily unavailable");
+        SendFailedException unknown = recipientFailure("b@example.com", 550, "550 5.1.1 User unknown");
+
+        assertEquals(450, SmtpReplies.replyCode(temporary));
+        assertFalse(SmtpReplies.isPermanent(temporary));
+        assertEquals(550, SmtpReplies.replyCode(unknown));
+        assertTrue(SmtpReplies.isPermanent(unknown));
+        assertEquals(Map.of("b@example.com", 550), SmtpReplies.rejectedRecipients(unknown));
+    }
+
+    @Test
+    void authenticationFailureIsNotPermanent() {
+        AuthenticationFailedException e = new AuthenticationFailedException("535 5.7.3 Authentication unsuccessful");
+
+        assertTrue(SmtpReplies.isAuthenticationFailure(e));
+        assertFalse(SmtpReplies.isPermanent(e));
+    }
+
+    @Test
+    void replyCodeWithoutReply() {
+        assertEquals(-1, SmtpReplies.replyCode(new MessagingException("Could not connect to SMTP host")));
+    }
+
+    private static SMTPSendFailedException dataFailure(int code, String reply) {
+        return new SMTPSendFailedException("DATA", code, reply, null, null, null, null);
+    }
+
+    private static SendFailedException recipientFailure(String address, int code, String reply) throws AddressException {
+        InternetAddress recipient = new InternetAddress(address);
+        SMTPAddressFailedException rejected = new SMTPAddressFailedException(recipient, "RCPT TO:<" + address + ">", code, reply);
+        return new SendFailedException("Invalid Addresses", rejected, null, null, new InternetAddress[]{recipient});
+    }
+}
@@ -0,0 +1,42 @@
+package at.htlleonding.leomail.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks and writes the results as JSON, so that runs can be compared over time.
+ * <p>
+ * Usage: {@code java -jar target/benchmarks.jar [result.json] [JMH options]}, e.g.
+ * {@code java -jar target/benchmarks.jar target/jmh-result.json TemplateRendering -p contactCount=1000}
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        boolean hasResultFile = args.length > 0 && args[0].endsWith(".json");
+        String resultFile = hasResultFile ? args[0] : DEFAULT_RESULT;
+        String[] jmhArgs = hasResultFile ? Arrays.copyOfRange(args, 1, args.length) : args;
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include("at\\.htlleonding\\.leomail\\..*Benchmark");
+        }
+        Options options = builder
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile)
+                .build();
+
+        new Runner(options).run();
+        System.out.println("Results written to " + resultFile);
+    }
+}
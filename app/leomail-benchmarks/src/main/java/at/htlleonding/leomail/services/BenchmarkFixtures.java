@@ -0,0 +1,192 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.entities.CompanyContact;
+import at.htlleonding.leomail.entities.Contact;
+import at.htlleonding.leomail.entities.NaturalContact;
+import at.htlleonding.leomail.entities.Template;
+import at.htlleonding.leomail.entities.TemplateGreeting;
+import at.htlleonding.leomail.model.enums.Gender;
+import io.quarkus.cache.Cache;
+import io.quarkus.qute.Engine;
+import io.smallrye.mutiny.Uni;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Test data for the benchmarks. Everything is derived from a fixed seed, so that every run
+ * works on exactly the same contacts and templates; no database or Quarkus container is needed.
+ */
+final class BenchmarkFixtures {
+
+    static final long SEED = 42L;
+
+    static final String ENCRYPTION_KEY = "leomail-benchmark-passphrase";
+
+    // same greeting and content structure as the seed data in import.sql
+    private static final String GREETING = """
+            {#if personalized}
+                {#if sex == "M"}
+                    Sehr geehrter Herr {prefixTitle} {lastname} {suffixTitle},
+                {/if}
+                {#if sex == "W"}
+                    Sehr geehrte Frau {prefixTitle} {lastname} {suffixTitle},
+                {/if}
+                {#if sex != "M" && sex != "W"}
+                    Sehr geehrte {prefixTitle} {lastname} {suffixTitle},
+                {/if}
+            {#else}
+                Sehr geehrte Damen und Herren,
+            {/if}
+            """;
+
+    private static final String CONTENT = "<p>hier eine Verständigung über Ihre Stammdaten, welche in unseren Unternehmen "
+            + "hinterlegt sind:</p><p><br></p><p><u>Vollständiger Name</u></p><p>{firstname} {lastname}</p><p><br></p>"
+            + "<p><u>Firma</u></p><p>{company} ({positionAtCompany})</p><p><br></p><p><u>E-Mail-Adresse</u></p>"
+            + "<p>{mailAddress}</p><p><br></p><p>Sollten sich Änderungen ergeben haben, bitte melden Sie sich bei uns.</p>";
+
+    private static final String[] FIRST_NAMES = {"Anna", "Lukas", "Sophie", "David", "Lena", "Jakob", "Marie", "Elias", "Laura", "Felix"};
+    private static final String[] LAST_NAMES = {"Gruber", "Huber", "Wagner", "Müller", "Pichler", "Steiner", "Moser", "Mayer", "Hofer", "Leitner"};
+    private static final String[] PREFIX_TITLES = {null, null, null, "Dr.", "Mag.", "DI", "Ing."};
+    private static final String[] SUFFIX_TITLES = {null, null, null, null, "BSc", "MSc", "PhD"};
+    private static final String[] COMPANIES = {"HTL Leonding", "voestalpine", "Fronius", "KTM", "Rosenbauer", null};
+    private static final String[] POSITIONS = {"Lehrer", "Entwickler", "Projektleiter", "Geschäftsführer", null};
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Creates contacts with a realistic mix: roughly one in ten is a company contact,
+     * natural contacts have optional titles and unset genders.
+     *
+     * @param count Number of contacts
+     * @param seed  Seed of the generator
+     * @return Contacts, always the same for the same arguments
+     */
+    static List<Contact> contacts(int count, long seed) {
+        Random random = new Random(seed);
+        List<Contact> contacts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Contact contact;
+            if (random.nextInt(10) == 0) {
+                CompanyContact company = new CompanyContact();
+                company.companyName = pick(random, COMPANIES) + " " + i;
+                company.mailAddress = "office" + i + "@company.example";
+                contact = company;
+            } else {
+                NaturalContact natural = new NaturalContact();
+                natural.firstName = pick(random, FIRST_NAMES);
+                natural.lastName = pick(random, LAST_NAMES);
+                natural.prefixTitle = pick(random, PREFIX_TITLES);
+                natural.suffixTitle = pick(random, SUFFIX_TITLES);
+                natural.company = pick(random, COMPANIES);
+                natural.positionAtCompany = pick(random, POSITIONS);
+                int gender = random.nextInt(5);
+                natural.gender = gender < 2 ? Gender.M : gender < 4 ? Gender.W : null;
+                natural.mailAddress = natural.firstName.toLowerCase() + "." + i + "@students.example";
+                contact = natural;
+            }
+            contact.id = new UUID(random.nextLong(), random.nextLong()).toString();
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+
+    static Template template() {
+        TemplateGreeting greeting = new TemplateGreeting(1L, "Sehr geehrte/r ... ,");
+        greeting.templateString = GREETING;
+        Template template = new Template("Kontaktdateninformation", "Ihre Kontaktdaten", CONTENT, false, null, greeting);
+        template.id = "benchmark-template";
+        return template;
+    }
+
+    /**
+     * Wires a TemplateBuilder the way the container would, with a plain Qute engine
+     * and a map in place of the Caffeine cache.
+     */
+    static TemplateBuilder templateBuilder() {
+        TemplateBuilder builder = new TemplateBuilder();
+        builder.engine = Engine.builder().addDefaults().build();
+        builder.compiledTemplates = new MapCache("compiled-templates");
+        builder.parallelThreshold = 200;
+        builder.parallelism = 0;
+        builder.init();
+        return builder;
+    }
+
+    static EncryptionService encryptionService() {
+        EncryptionService encryptionService = new EncryptionService();
+        encryptionService.encryptionKey = ENCRYPTION_KEY;
+        return encryptionService;
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Minimal {@link Cache} backed by a map; only what TemplateBuilder uses is supported.
+     */
+    private record MapCache(String name, Map<Object, Object> entries) implements Cache {
+
+        MapCache(String name) {
+            this(name, new ConcurrentHashMap<>());
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Object getDefaultKey() {
+            return "default-key";
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <K, V> Uni<V> get(K key, Function<K, V> valueLoader) {
+            return Uni.createFrom().item(() -> (V) entries.computeIfAbsent(key, k -> valueLoader.apply(key)));
+        }
+
+        @Override
+        public <K, V> Uni<V> getAsync(K key, Function<K, Uni<V>> valueLoader) {
+            return get(key, k -> valueLoader.apply(k).await().indefinitely());
+        }
+
+        @Override
+        public Uni<Void> invalidate(Object key) {
+            return Uni.createFrom().item(() -> {
+                entries.remove(key);
+                return null;
+            });
+        }
+
+        @Override
+        public Uni<Void> invalidateAll() {
+            return Uni.createFrom().item(() -> {
+                entries.clear();
+                return null;
+            });
+        }
+
+        @Override
+        public Uni<Void> invalidateIf(Predicate<Object> predicate) {
+            return Uni.createFrom().item(() -> {
+                entries.keySet().removeIf(predicate);
+                return null;
+            });
+        }
+
+        @Override
+        public <T extends Cache> T as(Class<T> type) {
+            throw new UnsupportedOperationException("MapCache cannot be used as " + type.getName());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package at.htlleonding.leomail.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption and decryption of a stored Outlook password, as done for every campaign that is sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private static final String PASSWORD = "Sup3r-Geheim!Passwort#2024";
+
+    private EncryptionService encryptionService;
+    private String encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionService = BenchmarkFixtures.encryptionService();
+        encrypted = encryptionService.encrypt(PASSWORD);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return encryptionService.encrypt(PASSWORD);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return encryptionService.decrypt(encrypted);
+    }
+}
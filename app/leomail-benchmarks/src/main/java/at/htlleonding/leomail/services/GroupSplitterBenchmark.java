@@ -0,0 +1,64 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.entities.Contact;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplication of the recipients of a campaign, as done by {@link GroupSplitter#streamRecipients}: the IDs of
+ * the directly selected contacts are merged with the member IDs of the group snapshots. Groups overlap: their
+ * members are drawn from a shared pool, and like stored snapshots every member array is sorted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupSplitterBenchmark {
+
+    private static final int DIRECT_CONTACTS = 50;
+
+    @Param({"1", "10", "50"})
+    int groupCount;
+
+    @Param({"100", "1000"})
+    int groupSize;
+
+    private List<String> contactIds;
+    private List<String[]> groupMemberIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the pool is smaller than all groups together, so that members are shared between groups
+        List<Contact> pool = BenchmarkFixtures.contacts(Math.max(groupSize, groupCount * groupSize / 2), BenchmarkFixtures.SEED);
+        Random random = new Random(BenchmarkFixtures.SEED);
+
+        contactIds = new ArrayList<>(DIRECT_CONTACTS);
+        for (int i = 0; i < DIRECT_CONTACTS; i++) {
+            contactIds.add(pool.get(random.nextInt(pool.size())).id);
+        }
+        groupMemberIds = new ArrayList<>(groupCount);
+        for (int g = 0; g < groupCount; g++) {
+            Set<String> members = new HashSet<>();
+            while (members.size() < groupSize) {
+                members.add(pool.get(random.nextInt(pool.size())).id);
+            }
+            String[] memberIds = members.toArray(String[]::new);
+            Arrays.sort(memberIds);
+            groupMemberIds.add(memberIds);
+        }
+    }
+
+    @Benchmark
+    public String[] mergeRecipientIds() {
+        return GroupSplitter.mergeRecipientIds(contactIds, groupMemberIds);
+    }
+}
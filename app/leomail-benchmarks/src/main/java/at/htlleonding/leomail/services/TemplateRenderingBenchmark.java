@@ -0,0 +1,50 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.entities.Template;
+import at.htlleonding.leomail.model.dto.contacts.RecipientDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of a campaign with the seed greeting and content, from a handful of recipients
+ * (sequential path) up to a large mailing list (parallel path).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderingBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    int contactCount;
+
+    @Param({"true", "false"})
+    boolean personalized;
+
+    private TemplateBuilder templateBuilder;
+    private Template template;
+    private List<RecipientDTO> recipients;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        templateBuilder = BenchmarkFixtures.templateBuilder();
+        template = BenchmarkFixtures.template();
+        recipients = BenchmarkFixtures.contacts(contactCount, BenchmarkFixtures.SEED).stream()
+                .map(RecipientDTO::of)
+                .toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        templateBuilder.shutdown();
+    }
+
+    @Benchmark
+    public List<String> renderTemplates() {
+        return templateBuilder.renderTemplates(template, recipients, personalized);
+    }
+}
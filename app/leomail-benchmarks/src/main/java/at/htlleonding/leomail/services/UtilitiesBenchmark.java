@@ -0,0 +1,41 @@
+package at.htlleonding.leomail.services;
+
+import at.htlleonding.leomail.model.dto.contacts.NaturalContactAddDTO;
+import at.htlleonding.leomail.model.enums.Gender;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reflective null check of request DTOs, as done by the repositories before creating a contact.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilitiesBenchmark {
+
+    // same allowed fields as ContactRepository#addContact
+    private static final List<String> ALLOWED = List.of("id", "prefixTitle", "suffixTitle", "company", "positionAtCompany");
+
+    private NaturalContactAddDTO contact;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        contact = new NaturalContactAddDTO(null, "Anna", "Gruber", "anna.gruber@students.example",
+                "Dr.", null, "HTL Leonding", null, Gender.W);
+    }
+
+    @Benchmark
+    public List<String> listNullFields() {
+        return Utilities.listNullFields(contact);
+    }
+
+    @Benchmark
+    public List<String> listNullFieldsWithAllowed() {
+        return Utilities.listNullFields(contact, ALLOWED);
+    }
+}